@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.util.JiveGlobals;
+import org.xmpp.packet.JID;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the (deterministic) data sets that are used by the benchmarks, and prepares the environment in which
+ * Openfire classes can be used outside of a running server.
+ */
+final class BenchmarkFixtures
+{
+    /**
+     * The amount of distinct JIDs that a benchmark cycles through. Must be a power of two.
+     */
+    static final int QUERY_COUNT = 1 << 14;
+
+    /**
+     * The amount of distinct parent domains under which generated domains are created.
+     */
+    private static final int PARENT_DOMAIN_COUNT = 500;
+
+    private static final String[] TOP_LEVEL_DOMAINS = { "com", "org", "net", "im", "xyz", "de", "nl", "ru" };
+
+    /**
+     * The shape of the JIDs that are looked up.
+     */
+    enum JidKind
+    {
+        FULL, BARE, DOMAIN
+    }
+
+    private BenchmarkFixtures()
+    {
+    }
+
+    /**
+     * Points Openfire to a temporary, empty home directory. With that, Openfire considers itself to be in setup mode,
+     * which causes system properties to return their default values, rather than them being loaded from a database.
+     */
+    static void configureOpenfireHome()
+    {
+        try
+        {
+            final Path home = Files.createTempDirectory( "blacklistspam-benchmark" );
+            Files.createDirectories( home.resolve( "conf" ) );
+            Files.write( home.resolve( "conf" ).resolve( "openfire.xml" ), "<jive></jive>".getBytes( StandardCharsets.UTF_8 ) );
+            JiveGlobals.setHomePath( home );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Returns the domain that is on the blacklist for the provided index. Generated domains are spread over a limited
+     * set of parent domains, similar to how real-world blacklists share suffixes.
+     */
+    static String listedDomain( final int index )
+    {
+        final int parent = index % PARENT_DOMAIN_COUNT;
+        return "spam" + index + ".example" + parent + '.' + TOP_LEVEL_DOMAINS[ parent % TOP_LEVEL_DOMAINS.length ];
+    }
+
+    /**
+     * Returns a domain that is not on the blacklist, but that shares its parent domains with domains that are.
+     */
+    static String unlistedDomain( final int index )
+    {
+        final int parent = index % PARENT_DOMAIN_COUNT;
+        return "ham" + index + ".example" + parent + '.' + TOP_LEVEL_DOMAINS[ parent % TOP_LEVEL_DOMAINS.length ];
+    }
+
+    /**
+     * Generates a blacklist of domain entries.
+     *
+     * @param size The amount of entries.
+     * @return a blacklist.
+     */
+    static Blacklist blacklist( final int size )
+    {
+        final List<JID> entries = new ArrayList<>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            entries.add( new JID( null, listedDomain( i ), null, true ) );
+        }
+        return new Blacklist( entries );
+    }
+
+    /**
+     * Generates JIDs to be looked up in a blacklist that was generated by {@link #blacklist(int)}.
+     *
+     * @param size The amount of entries on the blacklist.
+     * @param hitRatio The fraction of JIDs that are to be on the blacklist (0.0 - 1.0).
+     * @param kind The shape of the JIDs.
+     * @return An array of {@link #QUERY_COUNT} JIDs.
+     */
+    static JID[] queries( final int size, final double hitRatio, final JidKind kind )
+    {
+        final Random random = new Random( 42 );
+        final JID[] result = new JID[ QUERY_COUNT ];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            final int index = random.nextInt( size );
+            final String domain = random.nextDouble() < hitRatio ? listedDomain( index ) : unlistedDomain( index );
+            switch ( kind )
+            {
+                case FULL:
+                    result[ i ] = new JID( "user" + i, domain, "resource" + i, true );
+                    break;
+                case BARE:
+                    result[ i ] = new JID( "user" + i, domain, null, true );
+                    break;
+                default:
+                    result[ i ] = new JID( null, domain, null, true );
+                    break;
+            }
+        }
+        return result;
+    }
+}
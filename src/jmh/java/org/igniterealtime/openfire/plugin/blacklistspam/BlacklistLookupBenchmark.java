@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.openjdk.jmh.annotations.*;
+import org.xmpp.packet.JID;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of {@link Blacklist#isOnBlacklist(JID)}, for various sizes of blacklists, ratios of JIDs that are
+ * on the blacklist, and shapes of JIDs, with and without a probabilistic filter in front of the exact index, and with
+ * the entries held in a trie or in a perfect hash index.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" } )
+@State( Scope.Benchmark )
+public class BlacklistLookupBenchmark
+{
+    @Param( { "1000", "100000", "1000000", "5000000" } )
+    public int size;
+
+    @Param( { "0.0", "0.01", "0.5", "1.0" } )
+    public double hitRatio;
+
+    @Param( { "FULL", "BARE", "DOMAIN" } )
+    public BenchmarkFixtures.JidKind kind;
+
+    @Param( { "false", "true" } )
+    public boolean filter;
+
+    @Param( { "false", "true" } )
+    public boolean perfectHash;
+
+    private Blacklist blacklist;
+
+    private JID[] queries;
+
+    @State( Scope.Thread )
+    public static class Cursor
+    {
+        int next;
+    }
+
+    @Setup( Level.Trial )
+    public void setUp()
+    {
+        BenchmarkFixtures.configureOpenfireHome();
+        blacklist = BenchmarkFixtures.blacklist( size );
+        if ( filter )
+        {
+            blacklist = blacklist.withFilter( 0.01 );
+        }
+        if ( perfectHash )
+        {
+            blacklist = BlacklistFactory.toPerfectHashIndex( blacklist );
+        }
+        queries = BenchmarkFixtures.queries( size, hitRatio, kind );
+    }
+
+    @Benchmark
+    public boolean isOnBlacklist( final Cursor cursor )
+    {
+        return blacklist.isOnBlacklist( queries[ cursor.next++ & (BenchmarkFixtures.QUERY_COUNT - 1) ] );
+    }
+}
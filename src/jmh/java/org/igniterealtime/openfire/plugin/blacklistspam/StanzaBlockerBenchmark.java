@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.openjdk.jmh.annotations.*;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link StanzaBlocker#interceptPacket}, with an increasing amount of threads that
+ * intercept stanzas concurrently, as well as the throughput of storing blocked stanzas.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class StanzaBlockerBenchmark
+{
+    @Param( { "100000" } )
+    public int size;
+
+    @Param( { "0.0", "0.01", "1.0" } )
+    public double hitRatio;
+
+    private StanzaBlocker stanzaBlocker;
+
+    private Message[] stanzas;
+
+    @State( Scope.Thread )
+    public static class Cursor
+    {
+        int next;
+    }
+
+    @Setup( Level.Trial )
+    public void setUp()
+    {
+        BenchmarkFixtures.configureOpenfireHome();
+        stanzaBlocker = new StanzaBlocker();
+        stanzaBlocker.setBlacklist( BenchmarkFixtures.blacklist( size ) );
+
+        final JID[] senders = BenchmarkFixtures.queries( size, hitRatio, BenchmarkFixtures.JidKind.FULL );
+        stanzas = new Message[ senders.length ];
+        for ( int i = 0; i < senders.length; i++ )
+        {
+            final Message stanza = new Message();
+            stanza.setFrom( senders[ i ] );
+            stanza.setTo( "recipient@example.org" );
+            stanza.setBody( "Benchmark message " + i );
+            stanzas[ i ] = stanza;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        stanzaBlocker.shutdown();
+    }
+
+    private boolean intercept( final Cursor cursor )
+    {
+        try
+        {
+            stanzaBlocker.interceptPacket( stanzas[ cursor.next++ & (BenchmarkFixtures.QUERY_COUNT - 1) ], null, true, false );
+            return true;
+        }
+        catch ( PacketRejectedException e )
+        {
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public boolean intercept01Thread( final Cursor cursor )
+    {
+        return intercept( cursor );
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public boolean intercept04Threads( final Cursor cursor )
+    {
+        return intercept( cursor );
+    }
+
+    @Benchmark
+    @Threads( 16 )
+    public boolean intercept16Threads( final Cursor cursor )
+    {
+        return intercept( cursor );
+    }
+
+    @Benchmark
+    @Threads( 64 )
+    public boolean intercept64Threads( final Cursor cursor )
+    {
+        return intercept( cursor );
+    }
+
+    /**
+     * Measures what a packet thread pays to have a blocked stanza stored. When the writer cannot keep up, this
+     * includes the cost of dropping stanzas.
+     */
+    @Benchmark
+    @Threads( 4 )
+    public void storeBlockedStanza( final Cursor cursor )
+    {
+        stanzaBlocker.store( stanzas[ cursor.next++ & (BenchmarkFixtures.QUERY_COUNT - 1) ] );
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2019 Ignite Realtime Foundation
+ * Copyright 2019-2024 Ignite Realtime Foundation
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,9 +20,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * An immutable collection of unique JIDs, with additional functionality that
@@ -34,7 +35,54 @@ public class Blacklist
 {
     private final static Logger Log = LoggerFactory.getLogger( Blacklist.class );
 
-    private final Set<String> blacklist; // uses Strings instead of JIDs which is thought to improve performance.
+    /**
+     * All entries of the blacklist. Lookups use the (already parsed) parts of a JID as keys, which avoids the need to
+     * compose new String instances for every check. By default, entries are indexed in a {@link DomainTrie}.
+     */
+    private final BlacklistIndex entries;
+
+    /**
+     * An optional, probabilistic pre-check that quickly rules out JIDs that are not on the blacklist.
+     */
+    private final BlacklistFilter filter;
+
+    /**
+     * The URL of the resource from which this collection was obtained, if any.
+     */
+    private final String source;
+
+    /**
+     * The value of the 'ETag' HTTP response header of the resource from which this collection was obtained, if any.
+     */
+    private final String eTag;
+
+    /**
+     * The value of the 'Last-Modified' HTTP response header of the resource from which this collection was obtained, if any.
+     */
+    private final String lastModified;
+
+    /**
+     * The version of the content of the resource from which this collection was obtained, as announced by that
+     * resource, or {@link #UNKNOWN_VERSION} if the resource did not announce one.
+     */
+    private final long version;
+
+    /**
+     * The value of {@link #getVersion()} for collections of which the version is not known.
+     */
+    static final long UNKNOWN_VERSION = -1;
+
+    /**
+     * The URLs of the resources of which the entries were merged into this collection, in the order of the bits by
+     * which the index records the sources of each entry. Empty if this collection was not merged from multiple
+     * resources.
+     */
+    private final List<String> mergedSources;
+
+    /**
+     * The amount of changes that were applied to the entries since they were obtained or indexed as a whole.
+     */
+    private final int changesSinceIndexed;
 
     /**
      * Constructs a new collection.
@@ -42,14 +90,179 @@ public class Blacklist
      * @param blacklist A collection of JIDs. Cannot be null, can be empty.
      */
     public Blacklist( Collection<JID> blacklist )
+    {
+        this( blacklist, Collections.emptyList() );
+    }
+
+    /**
+     * Constructs a new collection that, apart from JIDs, contains entries that match all subdomains of a domain.
+     *
+     * @param blacklist A collection of JIDs. Cannot be null, can be empty.
+     * @param wildcardDomains A collection of domains of which all subdomains are to be matched. Cannot be null, can be empty.
+     */
+    public Blacklist( Collection<JID> blacklist, Collection<String> wildcardDomains )
     {
         if ( blacklist == null )
         {
             throw new IllegalArgumentException( "Argument 'blacklist' cannot be null." );
         }
+        if ( wildcardDomains == null )
+        {
+            throw new IllegalArgumentException( "Argument 'wildcardDomains' cannot be null." );
+        }
 
-        this.blacklist = blacklist.parallelStream().map( JID::toString ).collect( Collectors.toSet() );
-        Log.debug( "Constructed a new blacklist with {} JIDs.", this.blacklist.size() );
+        final DomainTrie entries = new DomainTrie();
+        for ( final JID jid : blacklist )
+        {
+            entries.add( jid.getNode(), jid.getDomain(), jid.getResource() );
+        }
+        for ( final String domain : wildcardDomains )
+        {
+            entries.addWildcard( domain );
+        }
+        this.entries = entries;
+        this.filter = null;
+        this.source = null;
+        this.eTag = null;
+        this.lastModified = null;
+        this.version = UNKNOWN_VERSION;
+        this.mergedSources = Collections.emptyList();
+        this.changesSinceIndexed = 0;
+        Log.debug( "Constructed a new blacklist with {} entries.", entries.size() );
+    }
+
+    /**
+     * Constructs a new collection from a fully populated index. The index should not be modified afterwards.
+     *
+     * @param entries The entries of the collection (cannot be null).
+     */
+    Blacklist( final BlacklistIndex entries )
+    {
+        this.entries = entries;
+        this.filter = null;
+        this.source = null;
+        this.eTag = null;
+        this.lastModified = null;
+        this.version = UNKNOWN_VERSION;
+        this.mergedSources = Collections.emptyList();
+        this.changesSinceIndexed = 0;
+        Log.debug( "Constructed a new blacklist with {} entries.", entries.size() );
+    }
+
+    private Blacklist( final BlacklistIndex entries, final BlacklistFilter filter, final String source, final String eTag, final String lastModified, final long version, final List<String> mergedSources, final int changesSinceIndexed )
+    {
+        this.entries = entries;
+        this.filter = filter;
+        this.source = source;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.version = version;
+        this.mergedSources = mergedSources;
+        this.changesSinceIndexed = changesSinceIndexed;
+    }
+
+    /**
+     * Returns a collection with the same entries as this one, that is associated with the HTTP validators of the
+     * resource from which the entries were obtained.
+     *
+     * @param source The URL of the resource from which the entries were obtained (cannot be null).
+     * @param eTag The value of the 'ETag' HTTP response header (can be null).
+     * @param lastModified The value of the 'Last-Modified' HTTP response header (can be null).
+     * @return A collection with the same entries.
+     */
+    Blacklist withValidators( final String source, final String eTag, final String lastModified )
+    {
+        return new Blacklist( entries, filter, source, eTag, lastModified, version, mergedSources, changesSinceIndexed );
+    }
+
+    /**
+     * Returns a collection with the same entries as this one, that is associated with the version of the content
+     * from which the entries were obtained. That version is used to request the changes that were made to the
+     * content since, rather than the content as a whole.
+     *
+     * @param version The version of the content, or {@link #UNKNOWN_VERSION}.
+     * @return A collection with the same entries.
+     */
+    Blacklist withVersion( final long version )
+    {
+        return new Blacklist( entries, filter, source, eTag, lastModified, version, mergedSources, changesSinceIndexed );
+    }
+
+    /**
+     * Returns a collection with the same entries as this one, that records the URLs of the resources that its entries
+     * were merged from.
+     *
+     * @param mergedSources The URLs, in the order of the bits by which the index records the sources of each entry (cannot be null).
+     * @return A collection with the same entries.
+     */
+    Blacklist withMergedSources( final List<String> mergedSources )
+    {
+        return new Blacklist( entries, filter, source, eTag, lastModified, version, List.copyOf( mergedSources ), changesSinceIndexed );
+    }
+
+    /**
+     * Returns a collection with the same entries as this one, that uses a probabilistic filter to rule out most JIDs
+     * that are not on the blacklist, before the entries themselves are checked.
+     *
+     * A filter can only be built from an index that can enumerate its entries. When the index of this collection
+     * cannot, this collection is returned unchanged.
+     *
+     * @param falsePositiveProbability The desired fraction of JIDs not on the blacklist that pass the filter (0.0 - 1.0, exclusive).
+     * @return A collection with the same entries.
+     */
+    Blacklist withFilter( final double falsePositiveProbability )
+    {
+        if ( !(entries instanceof EnumerableBlacklistIndex) )
+        {
+            Log.debug( "Not building a filter for a blacklist of which the entries cannot be enumerated." );
+            return this;
+        }
+        return new Blacklist( entries, BlacklistFilter.build( (EnumerableBlacklistIndex) entries, falsePositiveProbability ), source, eTag, lastModified, version, mergedSources, changesSinceIndexed );
+    }
+
+    /**
+     * Returns a collection with the same entries as this one, that does not use a probabilistic filter.
+     *
+     * @return A collection with the same entries.
+     */
+    Blacklist withoutFilter()
+    {
+        return new Blacklist( entries, null, source, eTag, lastModified, version, mergedSources, changesSinceIndexed );
+    }
+
+    /**
+     * Returns a collection with the same entries and validators as this one, of which the entries are held by a
+     * different index. The filter of this collection, if any, is retained. The entries are considered to be indexed as
+     * a whole: no changes are recorded since.
+     *
+     * @param entries An index that holds the same entries as the index of this collection.
+     * @return A collection with the same entries.
+     */
+    Blacklist withEntries( final BlacklistIndex entries )
+    {
+        return new Blacklist( entries, filter, source, eTag, lastModified, version, mergedSources, 0 );
+    }
+
+    /**
+     * Returns a collection with the validators of this one, of which the entries are the result of applying changes
+     * to the entries of this collection. The filter of this collection, if any, is extended with the entries that
+     * were added, rather than built anew. When the filter cannot hold that many more entries, the returned collection
+     * has no filter.
+     *
+     * @param entries A fork of the index of this collection, to which the changes were applied (cannot be null).
+     * @param additions The entries that were added, as they would occur in a block list (cannot be null).
+     * @param changes The amount of changes that were applied.
+     * @return A collection with the changed entries.
+     */
+    Blacklist withChanges( final DomainTrie entries, final Collection<String> additions, final int changes )
+    {
+        final BlacklistFilter changedFilter = filter == null ? null : filter.withAdditions( additions );
+        return new Blacklist( entries, changedFilter, source, eTag, lastModified, version, mergedSources, changesSinceIndexed + changes );
+    }
+
+    boolean hasFilter()
+    {
+        return filter != null;
     }
 
     /**
@@ -59,7 +272,8 @@ public class Blacklist
      * <ul>
      *   <li>the provided JID;</li>
      *   <li>the domain-part of the provided JID;</li>
-     *   <li>the bare JID representation of the provided JID.</li>
+     *   <li>the bare JID representation of the provided JID;</li>
+     *   <li>a wildcard entry for a parent domain of the domain-part of the provided JID.</li>
      * </ul>
      *
      * @param jid The value to check (cannot be null).
@@ -67,8 +281,163 @@ public class Blacklist
      */
     public boolean isOnBlacklist( final JID jid )
     {
-        final boolean result = blacklist.contains( jid.toString() ) || blacklist.contains( jid.getDomain() ) || blacklist.contains( jid.toBareJID() );
-        Log.trace( "JID {} on blacklist: {}", jid, result );
+        return isOnBlacklist( jid.getNode(), jid.getDomain(), jid.getResource() );
+    }
+
+    /**
+     * Checks if the JID that consists of the provided parts is on the blacklist. The parts are expected to be in
+     * their normalized form, as returned by {@link JID#getNode()}, {@link JID#getDomain()} and
+     * {@link JID#getResource()}.
+     *
+     * @param node The node part of the JID (can be null).
+     * @param domain The domain part of the JID (cannot be null).
+     * @param resource The resource part of the JID (can be null).
+     * @return true if the JID is on the blacklist, otherwise false.
+     */
+    public boolean isOnBlacklist( final String node, final String domain, final String resource )
+    {
+        final boolean result = (filter == null || filter.mightContain( node, domain, resource ))
+            && entries.contains( node, domain, resource );
+        if ( Log.isTraceEnabled() )
+        {
+            Log.trace( "JID {} on blacklist: {}", new JID( node, domain, resource, true ), result );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the entry of the blacklist that causes the JID that consists of the provided parts to be on the
+     * blacklist. The parts are expected to be in their normalized form, like for
+     * {@link #isOnBlacklist(String, String, String)}.
+     *
+     * @param node The node part of the JID (can be null).
+     * @param domain The domain part of the JID (cannot be null).
+     * @param resource The resource part of the JID (can be null).
+     * @return The entry, as it would occur in a block list, or null if the JID is not on the blacklist.
+     */
+    public String getMatchingEntry( final String node, final String domain, final String resource )
+    {
+        if ( filter != null && !filter.mightContain( node, domain, resource ) )
+        {
+            return null;
+        }
+        return entries.getMatchingEntry( node, domain, resource );
+    }
+
+    /**
+     * Determines from which resources the entries were obtained that cause the JID that consists of the provided parts
+     * to be on the blacklist.
+     *
+     * @param node The node part of the JID (can be null).
+     * @param domain The domain part of the JID (cannot be null).
+     * @param resource The resource part of the JID (can be null).
+     * @return The URLs of the resources (empty if the JID is not on the blacklist, or when the resources are not known).
+     */
+    public List<String> getMatchingSources( final String node, final String domain, final String resource )
+    {
+        if ( mergedSources.isEmpty() )
+        {
+            return source != null && isOnBlacklist( node, domain, resource ) ? Collections.singletonList( source ) : Collections.emptyList();
+        }
+        if ( !(entries instanceof DomainTrie) )
+        {
+            return Collections.emptyList();
+        }
+
+        final int sources = ((DomainTrie) entries).getSources( node, domain, resource );
+        final List<String> result = new ArrayList<>( Integer.bitCount( sources ) );
+        for ( int i = 0; i < mergedSources.size(); i++ )
+        {
+            if ( (sources & (1 << i)) != 0 )
+            {
+                result.add( mergedSources.get( i ) );
+            }
+        }
         return result;
     }
+
+    /**
+     * Determines to what extent the JIDs of a domain are on the blacklist. The
+     * verdict for a domain does not change for as long as this instance is
+     * used, which allows callers to cache it.
+     *
+     * @param domain The domain to check (cannot be null).
+     * @return The verdict for the domain.
+     */
+    public DomainVerdict getDomainVerdict( final String domain )
+    {
+        return entries.getDomainVerdict( domain );
+    }
+
+    /**
+     * Returns the amount of unique entries in this collection.
+     *
+     * @return the size of the collection.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    BlacklistIndex getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Returns the amount of changes that were applied to the entries of this collection since they were obtained, or
+     * held by a new index, as a whole.
+     *
+     * @return an amount of changes.
+     */
+    int getChangesSinceIndexed()
+    {
+        return changesSinceIndexed;
+    }
+
+    String getSource()
+    {
+        return source;
+    }
+
+    String getETag()
+    {
+        return eTag;
+    }
+
+    String getLastModified()
+    {
+        return lastModified;
+    }
+
+    long getVersion()
+    {
+        return version;
+    }
+
+    List<String> getMergedSources()
+    {
+        return mergedSources;
+    }
+
+    /**
+     * Describes to what extent the JIDs of a domain are on the blacklist.
+     */
+    public enum DomainVerdict
+    {
+        /**
+         * Every JID of the domain is on the blacklist.
+         */
+        BLOCKED,
+
+        /**
+         * No JID of the domain is on the blacklist.
+         */
+        CLEAR,
+
+        /**
+         * Some JIDs of the domain might be on the blacklist: each JID needs to be checked individually.
+         */
+        PARTIAL
+    }
 }
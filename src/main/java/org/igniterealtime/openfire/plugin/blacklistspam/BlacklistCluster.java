@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.ClusterTask;
+
+/**
+ * The cluster of which this node is a member, as far as the retrieval and distribution of the blacklist is concerned.
+ * <p>
+ * {@link #OPENFIRE} is the cluster that Openfire is configured with. Other implementations allow multiple nodes to be
+ * run in one process.
+ */
+interface BlacklistCluster
+{
+    /**
+     * The cluster that Openfire is configured with.
+     */
+    BlacklistCluster OPENFIRE = new BlacklistCluster()
+    {
+        @Override
+        public boolean isStarted()
+        {
+            return ClusterManager.isClusteringStarted();
+        }
+
+        @Override
+        public boolean isSeniorMember()
+        {
+            return ClusterManager.isSeniorClusterMember();
+        }
+
+        @Override
+        public void sendToOthers( final ClusterTask<?> task )
+        {
+            CacheFactory.doClusterTask( task );
+        }
+
+        @Override
+        public void sendTo( final ClusterTask<?> task, final byte[] nodeID )
+        {
+            CacheFactory.doClusterTask( task, nodeID );
+        }
+    };
+
+    /**
+     * Checks if this node is a member of a cluster.
+     *
+     * @return true if clustering has started, otherwise false.
+     */
+    boolean isStarted();
+
+    /**
+     * Checks if this node is the senior member of the cluster. A node that is not a member of a cluster is its senior
+     * member.
+     *
+     * @return true if this node is the senior member, otherwise false.
+     */
+    boolean isSeniorMember();
+
+    /**
+     * Executes a task on all other members of the cluster.
+     *
+     * @param task The task to execute (cannot be null).
+     */
+    void sendToOthers( ClusterTask<?> task );
+
+    /**
+     * Executes a task on one member of the cluster.
+     *
+     * @param task The task to execute (cannot be null).
+     * @param nodeID The identifier of the member that is to execute the task (cannot be null).
+     */
+    void sendTo( ClusterTask<?> task, byte[] nodeID );
+}
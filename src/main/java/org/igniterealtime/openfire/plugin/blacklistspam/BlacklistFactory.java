@@ -21,14 +21,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A utility method to generate blacklist instances.
@@ -39,6 +56,40 @@ public class BlacklistFactory
 {
     private static final Logger Log = LoggerFactory.getLogger( BlacklistFactory.class );
 
+    /**
+     * The size of the buffers that are used to read (and decompress) a block list.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The prefix of a line in a block list that denotes that all subdomains of a domain are on the list.
+     */
+    public static final String WILDCARD_PREFIX = "*.";
+
+    /**
+     * A line in a block list that starts with this directive announces the version of the block list (a number that
+     * increases with every change to the list).
+     */
+    public static final String VERSION_DIRECTIVE = "#version";
+
+    /**
+     * A line in a block list that starts with this directive, followed by a version, denotes that the block list
+     * contains only the changes that were made since that version. Every other line of such a list starts with either
+     * {@link #ADDITION_PREFIX} or {@link #REMOVAL_PREFIX}, followed by an entry. The directive must precede all
+     * entries.
+     */
+    public static final String DELTA_DIRECTIVE = "#delta";
+
+    /**
+     * The prefix of a line in a block list of changes that denotes an entry that was added.
+     */
+    public static final String ADDITION_PREFIX = "+";
+
+    /**
+     * The prefix of a line in a block list of changes that denotes an entry that was removed.
+     */
+    public static final String REMOVAL_PREFIX = "-";
+
     /**
      * Timeout to be used when opening a communications link based on the URL from where to obtain the block list.
      */
@@ -82,16 +133,74 @@ public class BlacklistFactory
         .setDynamic(true)
         .build();
 
+    /**
+     * Request the block list to be compressed by the server (gzip or deflate).
+     */
+    public static final SystemProperty<Boolean> CONNECTION_REQUEST_COMPRESSION = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("blacklistspam.connection.request.compression")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * Keep the blacklist in a compiled file that is memory-mapped, rather than in memory on the heap.
+     */
+    public static final SystemProperty<Boolean> INDEX_MAPPED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("blacklistspam.index.mapped")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * Hold the blacklist in an index that is based on a minimal perfect hash function, that stores a fingerprint of
+     * each entry rather than the entry itself. Does not apply when {@link #INDEX_MAPPED} is enabled.
+     */
+    public static final SystemProperty<Boolean> INDEX_PERFECTHASH = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("blacklistspam.index.perfecthash")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .build();
+
     /**
      * Creates a blacklist based on the content of a resource obtained via HTTP.
      *
      * Upon a successful HTTP response, it's body is expected to contain a
-     * newline-separated list of JIDs.
+     * newline-separated list of JIDs. A line that consists of a domain that is
+     * prefixed with {@link #WILDCARD_PREFIX} matches all subdomains of that
+     * domain.
      *
      * @param url the URL from which to obtain data (cannot be null).
      * @return A blacklist, or null if no blacklist could be constructed.
      */
     public static Blacklist fromURL( URL url )
+    {
+        return fromURL( url, null );
+    }
+
+    /**
+     * Creates a blacklist based on the content of a resource obtained via HTTP,
+     * unless that resource has not changed since a previous blacklist was
+     * obtained from it.
+     *
+     * When the previous blacklist was obtained from the same URL, the request
+     * is made conditional, based on the 'ETag' and 'Last-Modified' values of
+     * the response that the previous blacklist was created from. When the
+     * resource was not modified, the previous blacklist is returned.
+     *
+     * Upon a successful HTTP response, it's body is expected to contain a
+     * newline-separated list of JIDs. A line that consists of a domain that is
+     * prefixed with {@link #WILDCARD_PREFIX} matches all subdomains of that
+     * domain. The body can also contain the changes that were made since the
+     * version of the previous blacklist, as described by {@link #DELTA_DIRECTIVE}.
+     *
+     * @param url the URL from which to obtain data (cannot be null).
+     * @param previous the blacklist that was previously obtained (can be null).
+     * @return A blacklist, or null if no blacklist could be constructed.
+     */
+    public static Blacklist fromURL( URL url, Blacklist previous )
     {
         if ( url == null )
         {
@@ -101,29 +210,38 @@ public class BlacklistFactory
         try
         {
             Log.debug( "Obtaining blacklist from {}", url );
-            final HttpURLConnection con = (HttpURLConnection) url.openConnection();
-            con.setRequestMethod( "GET" );
+            final HttpURLConnection con = openConnection( url );
 
-            con.setConnectTimeout((int) CONNECTION_CONNECT_TIMEOUT.getValue().toMillis());
-            con.setReadTimeout((int) CONNECTION_READ_TIMEOUT.getValue().toMillis());
-            con.setRequestProperty( "Content-Type", CONNECTION_REQUEST_ACCEPT.getValue() );
-            con.setInstanceFollowRedirects( CONNECTION_REQUEST_FOLLOW_REDIRECTS.getValue() );
+            final boolean conditional = previous != null && url.toExternalForm().equals( previous.getSource() );
+            if ( conditional && previous.getETag() != null )
+            {
+                con.setRequestProperty( "If-None-Match", previous.getETag() );
+            }
+            if ( conditional && previous.getLastModified() != null )
+            {
+                con.setRequestProperty( "If-Modified-Since", previous.getLastModified() );
+            }
 
             final int responseCode = con.getResponseCode();
             final String responseMessage = con.getResponseMessage();
             Log.trace( "HTTP response for GET {} was {} {}", new Object[]{ url, responseCode, responseMessage } );
+            if ( responseCode == 304 && conditional )
+            {
+                Log.debug( "HTTP response code was 304: returning the previous blacklist." );
+                return previous;
+            }
+            final String eTag = con.getHeaderField( "ETag" );
+            final String lastModified = con.getHeaderField( "Last-Modified" );
             if ( responseCode == 204 )
             {
                 Log.debug( "HTTP response code was 204: returning an empty blacklist." );
-                return new Blacklist( Collections.emptyList() );
+                return new Blacklist( Collections.emptyList() ).withValidators( url.toExternalForm(), eTag, lastModified );
             }
             if ( responseCode >= 200 && responseCode <= 299 )
             {
                 Log.debug( "Instantiating new blacklist from HTTP response body." );
-                final List<String> content = responseAsList( con );
-                final Set<JID> jids = asJIDs( content );
-                final Blacklist result = new Blacklist( jids );
-                return result;
+                final Blacklist result = parse( decode( con ), previous );
+                return result == previous ? previous : result.withValidators( url.toExternalForm(), eTag, lastModified );
             }
             else if ( responseCode >= 400 && responseCode <= 499 )
             {
@@ -151,23 +269,438 @@ public class BlacklistFactory
         }
     }
 
-    private static List<String> responseAsList( HttpURLConnection con ) throws IOException
+    /**
+     * Creates a blacklist based on the content of a local file, unless that
+     * file has not changed since a previous blacklist was obtained from it.
+     *
+     * The file is expected to have the same content as the body of the HTTP
+     * response that is described by {@link #fromURL(URL, Blacklist)}. A file
+     * in gzip format is decompressed while it is read. Whether the file
+     * changed is determined by its size and last modification time, which are
+     * recorded as the validators of the returned blacklist.
+     *
+     * @param path the file from which to obtain data (cannot be null).
+     * @param previous the blacklist that was previously obtained (can be null).
+     * @return A blacklist, or null if no blacklist could be constructed.
+     */
+    public static Blacklist fromFile( Path path, Blacklist previous )
     {
-        try ( final BufferedReader in = new BufferedReader( new InputStreamReader( con.getInputStream() ) ) )
+        if ( path == null )
         {
-            final List<String> content = new ArrayList<>();
+            throw new IllegalArgumentException( "Argument 'path' cannot be null." );
+        }
+
+        try
+        {
+            final BasicFileAttributes attributes = Files.readAttributes( path, BasicFileAttributes.class );
+            final String source = path.toUri().toURL().toExternalForm();
+            final String eTag = attributes.size() + "-" + attributes.lastModifiedTime().toMillis();
+            final String lastModified = attributes.lastModifiedTime().toString();
+            if ( previous != null && source.equals( previous.getSource() ) && eTag.equals( previous.getETag() ) )
+            {
+                Log.debug( "File {} was not modified: returning the previous blacklist.", path );
+                return previous;
+            }
+
+            Log.debug( "Obtaining blacklist from {}", path );
+            try ( final FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+            {
+                final InputStream in = new BufferedInputStream( Channels.newInputStream( channel ), BUFFER_SIZE );
+                final Blacklist result = parse( decode( in, null ), previous );
+                return result == previous ? previous : result.withValidators( source, eTag, lastModified );
+            }
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "An exception occurred while obtaining a blacklist from {}.", path, e );
+            return null;
+        }
+    }
+
+    /**
+     * Creates a blacklist by applying the changes that were made since the
+     * version of a previous blacklist, obtained via HTTP, to that blacklist.
+     * The new blacklist shares everything but the changed parts of its index
+     * with the previous one, which makes the cost of applying the changes
+     * proportional to the amount of changes, rather than to the size of the
+     * blacklist.
+     *
+     * Upon a successful HTTP response, it's body is expected to contain the
+     * changes, as described by {@link #DELTA_DIRECTIVE}. A response with code
+     * 204 or 304 denotes that there are no changes. A response that contains a
+     * full list, rather than changes, is accepted as well.
+     *
+     * The new blacklist has the version that is stated in the response, but
+     * retains the source and validators of the previous blacklist: those
+     * identify the full list, to which the changes are merely a shortcut.
+     *
+     * @param url the URL from which to obtain the changes (cannot be null).
+     * @param previous the blacklist that was previously obtained, of which the version is known (cannot be null).
+     * @return A blacklist (which is the previous blacklist when there are no changes), or null if the changes could not be obtained or applied.
+     */
+    public static Blacklist fromDeltaURL( URL url, Blacklist previous )
+    {
+        if ( url == null )
+        {
+            throw new IllegalArgumentException( "Argument 'url' cannot be null" );
+        }
+        if ( previous == null )
+        {
+            throw new IllegalArgumentException( "Argument 'previous' cannot be null." );
+        }
+        if ( previous.getVersion() == Blacklist.UNKNOWN_VERSION || !(previous.getEntries() instanceof DomainTrie) )
+        {
+            throw new IllegalArgumentException( "Changes can only be applied to blacklists that are held in memory, and of which the version is known." );
+        }
+
+        try
+        {
+            Log.debug( "Obtaining changes to blacklist version {} from {}", previous.getVersion(), url );
+            final HttpURLConnection con = openConnection( url );
+
+            final int responseCode = con.getResponseCode();
+            final String responseMessage = con.getResponseMessage();
+            Log.trace( "HTTP response for GET {} was {} {}", new Object[]{ url, responseCode, responseMessage } );
+            if ( responseCode == 204 || responseCode == 304 )
+            {
+                Log.debug( "HTTP response code was {}: returning the previous blacklist.", responseCode );
+                return previous;
+            }
+            if ( responseCode >= 200 && responseCode <= 299 )
+            {
+                final Blacklist result = parse( decode( con ), previous );
+                return result == previous ? previous : result.withValidators( previous.getSource(), previous.getETag(), previous.getLastModified() );
+            }
+            Log.info( "The request to obtain changes to the blacklist from {} returned a {} {} response.", new Object[]{ url, responseCode, responseMessage } );
+            return null;
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "An exception occurred while obtaining changes to the blacklist.", e );
+            return null;
+        }
+    }
+
+    /**
+     * Merges blacklists that were obtained from different resources into one
+     * blacklist, that records from which of these resources each of its
+     * entries was obtained. The entries are not duplicated: the index of the
+     * merged blacklist refers to the same labels, node-parts and
+     * resource-parts as the indexes of the blacklists that it is merged from.
+     *
+     * @param blacklists Blacklists that are held in memory (cannot be null or empty, at most {@link DomainTrie#MAX_SOURCES}).
+     * @return A blacklist with the entries of all blacklists, or the only blacklist if there is just one.
+     */
+    public static Blacklist merge( List<Blacklist> blacklists )
+    {
+        if ( blacklists == null || blacklists.isEmpty() )
+        {
+            throw new IllegalArgumentException( "Argument 'blacklists' cannot be null or empty." );
+        }
+        if ( blacklists.size() == 1 )
+        {
+            return blacklists.get( 0 );
+        }
+
+        final List<DomainTrie> entries = new ArrayList<>( blacklists.size() );
+        final List<String> sources = new ArrayList<>( blacklists.size() );
+        for ( final Blacklist blacklist : blacklists )
+        {
+            if ( !(blacklist.getEntries() instanceof DomainTrie) )
+            {
+                throw new IllegalArgumentException( "Only blacklists that are held in memory can be merged." );
+            }
+            entries.add( (DomainTrie) blacklist.getEntries() );
+            sources.add( blacklist.getSource() == null ? "" : blacklist.getSource() );
+        }
+
+        final long start = System.nanoTime();
+        final Blacklist result = new Blacklist( DomainTrie.merge( entries ) ).withMergedSources( sources );
+        Log.debug( "Merged {} blacklists into one with {} entries in {} ms", new Object[]{ blacklists.size(), result.size(), TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) } );
+        return result;
+    }
+
+    /**
+     * Compiles a blacklist into a file that can be memory-mapped, and returns
+     * a blacklist that is backed by that file. The returned blacklist holds
+     * (next to nothing) of its entries on the heap.
+     *
+     * @param blacklist A blacklist that was obtained from its source (cannot be null).
+     * @param path The file to write the compiled blacklist to (cannot be null).
+     * @return A blacklist with the same entries, backed by the file.
+     * @throws IOException On any problem writing or mapping the file.
+     */
+    public static Blacklist toMappedFile( Blacklist blacklist, Path path ) throws IOException
+    {
+        if ( blacklist == null )
+        {
+            throw new IllegalArgumentException( "Argument 'blacklist' cannot be null." );
+        }
+        if ( path == null )
+        {
+            throw new IllegalArgumentException( "Argument 'path' cannot be null." );
+        }
+        if ( !(blacklist.getEntries() instanceof DomainTrie) )
+        {
+            throw new IllegalArgumentException( "Only blacklists that are held in memory can be compiled." );
+        }
+
+        MappedBlacklistIndex.write( (DomainTrie) blacklist.getEntries(), blacklist.getSource(), blacklist.getETag(), blacklist.getLastModified(), path );
+        Log.debug( "Compiled blacklist with {} entries into {}", blacklist.size(), path );
+        return blacklist.withEntries( MappedBlacklistIndex.open( path ) );
+    }
+
+    /**
+     * Computes a minimal perfect hash function over the entries of a blacklist,
+     * and returns a blacklist that looks up entries by their fingerprint. The
+     * returned blacklist uses a fraction of the memory of the original, but
+     * can no longer enumerate its entries, and can (with a probability in the
+     * order of n / 2^64 per lookup) report an entry that is not on the list.
+     *
+     * @param blacklist A blacklist that was obtained from its source (cannot be null).
+     * @return A blacklist with the same entries, held in a perfect hash index.
+     */
+    public static Blacklist toPerfectHashIndex( Blacklist blacklist )
+    {
+        if ( blacklist == null )
+        {
+            throw new IllegalArgumentException( "Argument 'blacklist' cannot be null." );
+        }
+        if ( !(blacklist.getEntries() instanceof DomainTrie) )
+        {
+            throw new IllegalArgumentException( "Only blacklists that are held in memory can be indexed." );
+        }
+
+        final long start = System.nanoTime();
+        final PerfectHashBlacklistIndex index = PerfectHashBlacklistIndex.build( (DomainTrie) blacklist.getEntries() );
+        Log.debug( "Built perfect hash index for blacklist with {} entries in {} ms", blacklist.size(), TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        return blacklist.withEntries( index );
+    }
+
+    /**
+     * Creates a blacklist that is backed by a compiled file, that was
+     * previously written by {@link #toMappedFile(Blacklist, Path)}.
+     *
+     * @param path The compiled file (cannot be null).
+     * @return A blacklist, or null if the file does not exist or cannot be read.
+     */
+    public static Blacklist fromMappedFile( Path path )
+    {
+        if ( path == null )
+        {
+            throw new IllegalArgumentException( "Argument 'path' cannot be null." );
+        }
+
+        if ( !Files.isRegularFile( path ) )
+        {
+            Log.debug( "No compiled blacklist exists at {}", path );
+            return null;
+        }
+
+        try
+        {
+            final MappedBlacklistIndex index = MappedBlacklistIndex.open( path );
+            return new Blacklist( index ).withValidators( index.getSource(), index.getETag(), index.getLastModified() );
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "An exception occurred while reading compiled blacklist from {}", path, e );
+            return null;
+        }
+    }
+
+    private static HttpURLConnection openConnection( URL url ) throws IOException
+    {
+        final HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setRequestMethod( "GET" );
+
+        con.setConnectTimeout((int) CONNECTION_CONNECT_TIMEOUT.getValue().toMillis());
+        con.setReadTimeout((int) CONNECTION_READ_TIMEOUT.getValue().toMillis());
+        con.setRequestProperty( "Content-Type", CONNECTION_REQUEST_ACCEPT.getValue() );
+        con.setInstanceFollowRedirects( CONNECTION_REQUEST_FOLLOW_REDIRECTS.getValue() );
+        if ( CONNECTION_REQUEST_COMPRESSION.getValue() )
+        {
+            con.setRequestProperty( "Accept-Encoding", "gzip, deflate" );
+        }
+        return con;
+    }
+
+    /**
+     * Reads a (decompressed) block list line by line, adding every line that
+     * is a valid entry directly to the index of a new blacklist. The content
+     * is not copied in any intermediate form.
+     *
+     * When the body contains changes (see {@link #DELTA_DIRECTIVE}), these are
+     * applied to a fork of the index of the previous blacklist instead, and
+     * the entries that are added are included in the filter of the previous
+     * blacklist (if any). When that results in the same version as the
+     * previous blacklist, without any changes, the previous blacklist is
+     * returned.
+     */
+    private static Blacklist parse( InputStream content, Blacklist previous ) throws IOException
+    {
+        try ( final BufferedReader in = new BufferedReader( new InputStreamReader( content, StandardCharsets.UTF_8 ), BUFFER_SIZE ) )
+        {
+            DomainTrie entries = new DomainTrie();
+            List<String> additions = null;
+            long version = Blacklist.UNKNOWN_VERSION;
+            boolean delta = false;
+            boolean hasEntries = false;
+            int changes = 0;
             String line;
             while ( (line = in.readLine()) != null )
             {
-                content.add( line.trim() );
+                line = line.trim();
+                if ( isDirective( line, VERSION_DIRECTIVE ) )
+                {
+                    version = parseVersion( line, VERSION_DIRECTIVE );
+                }
+                else if ( isDirective( line, DELTA_DIRECTIVE ) )
+                {
+                    if ( delta || hasEntries )
+                    {
+                        throw new IOException( "The " + DELTA_DIRECTIVE + " directive must occur once, before all entries." );
+                    }
+                    final long base = parseVersion( line, DELTA_DIRECTIVE );
+                    if ( previous == null || previous.getVersion() != base || !(previous.getEntries() instanceof DomainTrie) )
+                    {
+                        throw new IOException( "Unable to apply the changes since version " + base + ": they do not apply to the blacklist that is in use." );
+                    }
+                    entries = ((DomainTrie) previous.getEntries()).fork();
+                    additions = previous.hasFilter() ? new ArrayList<>() : null;
+                    delta = true;
+                }
+                else if ( delta )
+                {
+                    if ( applyChange( entries, line, additions == null ? null : additions::add ) )
+                    {
+                        changes++;
+                    }
+                }
+                else
+                {
+                    hasEntries |= !line.isEmpty();
+                    addEntry( entries, line );
+                }
+            }
+
+            if ( delta )
+            {
+                Log.debug( "Applied {} changes to blacklist version {}, resulting in version {}.", new Object[]{ changes, previous.getVersion(), version } );
+                if ( changes == 0 && version == previous.getVersion() )
+                {
+                    return previous;
+                }
+                return previous.withChanges( entries, additions == null ? Collections.emptyList() : additions, changes ).withVersion( version );
+            }
+            return new Blacklist( entries ).withVersion( version );
+        }
+    }
+
+    private static boolean isDirective( String line, String directive )
+    {
+        return line.startsWith( directive ) && (line.length() == directive.length() || Character.isWhitespace( line.charAt( directive.length() ) ));
+    }
+
+    private static long parseVersion( String line, String directive ) throws IOException
+    {
+        try
+        {
+            return Long.parseLong( line.substring( directive.length() ).trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IOException( "Unable to parse version from: " + line, e );
+        }
+    }
+
+    /**
+     * Returns the body of a HTTP response, decompressed according to its
+     * Content-Encoding. A body that (after that) is still in gzip format, as
+     * is the case for pre-compressed resources (such as '.gz' files), is
+     * decompressed as well. A plain-text blacklist cannot be mistaken for
+     * gzip data, as its first byte would be a control character.
+     */
+    private static InputStream decode( HttpURLConnection con ) throws IOException
+    {
+        return decode( new BufferedInputStream( con.getInputStream(), BUFFER_SIZE ), con.getContentEncoding() );
+    }
+
+    /**
+     * Returns the decompressed form of content that is compressed according
+     * to a HTTP Content-Encoding (if any), or that is in gzip format.
+     *
+     * @param in The content, which must support {@link InputStream#mark(int)}.
+     * @param contentEncoding The value of the Content-Encoding HTTP response header (can be null).
+     */
+    static InputStream decode( InputStream in, String contentEncoding ) throws IOException
+    {
+        if ( contentEncoding != null )
+        {
+            switch ( contentEncoding.trim().toLowerCase( Locale.ROOT ) )
+            {
+                case "gzip":
+                case "x-gzip":
+                    in = new BufferedInputStream( new GZIPInputStream( in, BUFFER_SIZE ), BUFFER_SIZE );
+                    break;
+                case "deflate":
+                    // Should be zlib-wrapped, but some servers send raw deflate data.
+                    in = new BufferedInputStream( new InflaterInputStream( in, new Inflater( !isZlibHeader( in ) ), BUFFER_SIZE ), BUFFER_SIZE );
+                    break;
+                case "":
+                case "identity":
+                    break;
+                default:
+                    throw new IOException( "Unsupported Content-Encoding: " + contentEncoding );
             }
-            return content;
+        }
+
+        if ( isGzipHeader( in ) )
+        {
+            Log.debug( "Decompressing blacklist that is stored in gzip format." );
+            in = new GZIPInputStream( in, BUFFER_SIZE );
+        }
+        return in;
+    }
+
+    private static boolean isGzipHeader( InputStream in ) throws IOException
+    {
+        in.mark( 2 );
+        try
+        {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+        finally
+        {
+            in.reset();
+        }
+    }
+
+    private static boolean isZlibHeader( InputStream in ) throws IOException
+    {
+        in.mark( 2 );
+        try
+        {
+            final int cmf = in.read();
+            final int flg = in.read();
+            return cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        }
+        finally
+        {
+            in.reset();
         }
     }
 
     private static String errorResponseAsText( HttpURLConnection con ) throws IOException
     {
-        try ( final BufferedReader in = new BufferedReader( new InputStreamReader( con.getErrorStream() ) ) )
+        final InputStream errorStream = con.getErrorStream();
+        if ( errorStream == null )
+        {
+            return "";
+        }
+
+        // As compression is requested, an error response can be compressed too.
+        try ( final BufferedReader in = new BufferedReader( new InputStreamReader( decode( new BufferedInputStream( errorStream, BUFFER_SIZE ), con.getContentEncoding() ), StandardCharsets.UTF_8 ) ) )
         {
             final StringBuilder content = new StringBuilder();
             String line;
@@ -179,27 +712,120 @@ public class BlacklistFactory
         }
     }
 
-    private static Set<JID> asJIDs( Collection<String> content )
+    /**
+     * Parses a line of a block list, and adds the entry that it represents to
+     * the index. Lines that are empty, or that cannot be parsed, are skipped.
+     *
+     * @param entries The index to add the entry to.
+     * @param line The (trimmed) line to parse.
+     * @return true if the line represents a valid entry, otherwise false.
+     */
+    static boolean addEntry( DomainTrie entries, String line )
     {
-        if ( content == null )
+        return addEntry( entries, line, null );
+    }
+
+    /**
+     * Like {@link #addEntry(DomainTrie, String)}, but also provides the entry,
+     * in its normalized form, to a consumer when the index did not contain it.
+     *
+     * @param additions Receives the entry if it was not already in the index (can be null).
+     */
+    private static boolean addEntry( DomainTrie entries, String line, Consumer<String> additions )
+    {
+        if ( line.isEmpty() )
         {
-            throw new IllegalArgumentException( "Argument 'content' cannot be null." );
+            return false;
         }
 
-        final Set<JID> result = new HashSet<>();
-        for ( final String line : content )
+        try
         {
-            try
+            if ( line.startsWith( WILDCARD_PREFIX ) )
+            {
+                final JID domain = new JID( null, line.substring( WILDCARD_PREFIX.length() ), null );
+                if ( entries.addWildcard( domain.getDomain() ) && additions != null )
+                {
+                    additions.accept( WILDCARD_PREFIX + domain.getDomain() );
+                }
+            }
+            else
             {
                 final JID jid = new JID( line );
-                result.add( jid );
+                if ( entries.add( jid.getNode(), jid.getDomain(), jid.getResource() ) && additions != null )
+                {
+                    additions.accept( jid.toString() );
+                }
+            }
+            return true;
+        }
+        catch ( Exception e )
+        {
+            Log.debug( "Unable to parse JID from {}. Skipping value.", line, e );
+            return false;
+        }
+    }
+
+    /**
+     * Parses a line of a block list, and removes the entry that it represents
+     * from the index. Lines that are empty, or that cannot be parsed, are
+     * skipped.
+     *
+     * @param entries The index to remove the entry from.
+     * @param line The (trimmed) line to parse.
+     * @return true if the line represents a valid entry, otherwise false.
+     */
+    static boolean removeEntry( DomainTrie entries, String line )
+    {
+        if ( line.isEmpty() )
+        {
+            return false;
+        }
+
+        try
+        {
+            if ( line.startsWith( WILDCARD_PREFIX ) )
+            {
+                final JID domain = new JID( null, line.substring( WILDCARD_PREFIX.length() ), null );
+                entries.removeWildcard( domain.getDomain() );
             }
-            catch ( Exception e )
+            else
             {
-                Log.debug( "Unable to parse JID from {}. Skipping value.", line, e );
+                final JID jid = new JID( line );
+                entries.remove( jid.getNode(), jid.getDomain(), jid.getResource() );
             }
+            return true;
+        }
+        catch ( Exception e )
+        {
+            Log.debug( "Unable to parse JID from {}. Skipping value.", line, e );
+            return false;
         }
+    }
 
-        return result;
+    /**
+     * Parses a line of a block list of changes, and applies the change that it
+     * represents to the index. Lines that are empty, or that cannot be parsed,
+     * are skipped.
+     *
+     * @param entries The index to apply the change to.
+     * @param line The (trimmed) line to parse.
+     * @param additions Receives the (normalized) entries that are added to the index (can be null).
+     * @return true if the line represents a valid change, otherwise false.
+     */
+    static boolean applyChange( DomainTrie entries, String line, Consumer<String> additions )
+    {
+        if ( line.startsWith( ADDITION_PREFIX ) )
+        {
+            return addEntry( entries, line.substring( ADDITION_PREFIX.length() ).trim(), additions );
+        }
+        if ( line.startsWith( REMOVAL_PREFIX ) )
+        {
+            return removeEntry( entries, line.substring( REMOVAL_PREFIX.length() ).trim() );
+        }
+        if ( !line.isEmpty() )
+        {
+            Log.debug( "Unable to parse change from {}. Skipping value.", line );
+        }
+        return false;
     }
 }
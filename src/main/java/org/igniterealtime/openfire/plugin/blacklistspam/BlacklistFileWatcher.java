@@ -0,0 +1,260 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the local files from which (part of) the blacklist is obtained, and invokes a callback when any of them
+ * changes.
+ *
+ * Editing a file typically causes a burst of events (for example, when a file is truncated and then written, or written
+ * to a temporary file that then replaces it). The callback is invoked only once the files have not changed for a short
+ * while, so that it is not invoked while a file is only partially written.
+ *
+ * The file system is not watched, and no thread is started, until the first time that a file is to be watched.
+ */
+public class BlacklistFileWatcher
+{
+    private static final Logger Log = LoggerFactory.getLogger( BlacklistFileWatcher.class );
+
+    /**
+     * The period during which a watched file must not change, after a change, before the blacklist is reloaded.
+     */
+    public static final SystemProperty<Duration> WATCH_DEBOUNCE = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("blacklistspam.file.watch.debounce")
+        .setPlugin("Spam blacklist")
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDefaultValue(Duration.ofSeconds(2))
+        .setMinValue(Duration.ofMillis(100))
+        .setDynamic(true)
+        .build();
+
+    private final Runnable onChange;
+
+    /**
+     * The service that reports changes in the watched directories, or null if it has not been created yet.
+     */
+    private WatchService watchService;
+
+    private Thread thread;
+
+    private boolean shutdown;
+
+    /**
+     * The registrations of the directories that contain the watched files, by directory.
+     */
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+
+    private volatile Set<Path> files = new HashSet<>();
+
+    /**
+     * Creates a watcher, that does not watch any file until {@link #watch(Set)} is invoked.
+     *
+     * @param onChange The callback to invoke when a watched file changes (cannot be null).
+     */
+    BlacklistFileWatcher( final Runnable onChange )
+    {
+        if ( onChange == null )
+        {
+            throw new IllegalArgumentException( "Argument 'onChange' cannot be null." );
+        }
+        this.onChange = onChange;
+    }
+
+    /**
+     * Replaces the files that are watched. A file does not need to exist to be watched, but the directory that
+     * contains it does.
+     *
+     * @param files Absolute, normalized paths of the files to watch (cannot be null, can be empty).
+     */
+    synchronized void watch( final Set<Path> files )
+    {
+        if ( shutdown || (watchService == null && (files.isEmpty() || !start())) )
+        {
+            return;
+        }
+
+        final Set<Path> directories = new HashSet<>();
+        for ( final Path file : files )
+        {
+            if ( file.getParent() != null )
+            {
+                directories.add( file.getParent() );
+            }
+        }
+
+        final Iterator<Map.Entry<Path, WatchKey>> iterator = keys.entrySet().iterator();
+        while ( iterator.hasNext() )
+        {
+            final Map.Entry<Path, WatchKey> entry = iterator.next();
+            if ( !directories.contains( entry.getKey() ) )
+            {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        for ( final Path directory : directories )
+        {
+            if ( keys.containsKey( directory ) )
+            {
+                continue;
+            }
+            try
+            {
+                keys.put( directory, directory.register( watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE ) );
+                Log.debug( "Watching directory {} for changes to blacklist files.", directory );
+            }
+            catch ( IOException e )
+            {
+                Log.warn( "Unable to watch directory {} for changes to blacklist files. Changes will be picked up at the next refresh instead.", directory, e );
+            }
+        }
+
+        this.files = new HashSet<>( files );
+    }
+
+    /**
+     * Stops watching files.
+     */
+    synchronized void shutdown()
+    {
+        shutdown = true;
+        if ( watchService == null )
+        {
+            return;
+        }
+        thread.interrupt();
+        try
+        {
+            watchService.close();
+        }
+        catch ( IOException e )
+        {
+            Log.debug( "An exception occurred while closing the watch service.", e );
+        }
+        watchService = null;
+        thread = null;
+    }
+
+    /**
+     * Creates the watch service, and starts the thread that processes its events.
+     *
+     * @return true if the file system can be watched, otherwise false.
+     */
+    private boolean start()
+    {
+        try
+        {
+            watchService = FileSystems.getDefault().newWatchService();
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "Unable to watch blacklist files for changes. Changes will be picked up at the next refresh instead.", e );
+            return false;
+        }
+        final WatchService service = watchService;
+        thread = new Thread( () -> run( service ), "blacklistspam-watch" );
+        thread.setDaemon( true );
+        thread.start();
+        return true;
+    }
+
+    private void run( final WatchService watchService )
+    {
+        try
+        {
+            while ( !Thread.currentThread().isInterrupted() )
+            {
+                if ( !isRelevant( watchService.take() ) )
+                {
+                    continue;
+                }
+
+                // Wait until the files have not changed for the debounce period.
+                long quietUntil = System.nanoTime() + WATCH_DEBOUNCE.getValue().toNanos();
+                long remaining;
+                while ( (remaining = quietUntil - System.nanoTime()) > 0 )
+                {
+                    final WatchKey key = watchService.poll( remaining, TimeUnit.NANOSECONDS );
+                    if ( key != null && isRelevant( key ) )
+                    {
+                        quietUntil = System.nanoTime() + WATCH_DEBOUNCE.getValue().toNanos();
+                    }
+                }
+
+                Log.info( "A blacklist file changed. Refreshing the blacklist." );
+                try
+                {
+                    onChange.run();
+                }
+                catch ( Exception e )
+                {
+                    Log.warn( "An exception occurred while refreshing the blacklist after a blacklist file changed.", e );
+                }
+            }
+        }
+        catch ( InterruptedException | ClosedWatchServiceException e )
+        {
+            Log.debug( "Stopped watching blacklist files." );
+        }
+    }
+
+    /**
+     * Consumes the pending events of a registration, and checks if any of them concerns a watched file.
+     */
+    private boolean isRelevant( final WatchKey key )
+    {
+        final Path directory = (Path) key.watchable();
+        final Set<Path> watched = files;
+        boolean relevant = false;
+        for ( final WatchEvent<?> event : key.pollEvents() )
+        {
+            if ( event.kind() == StandardWatchEventKinds.OVERFLOW )
+            {
+                // Events were lost, which might have included events for watched files.
+                relevant = true;
+            }
+            else if ( watched.contains( directory.resolve( (Path) event.context() ) ) )
+            {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.util.SystemProperty;
+
+import java.util.Collection;
+
+/**
+ * A blocked Bloom filter over the entries of a blacklist, that is used to quickly rule out JIDs that are not on the
+ * blacklist, before the (more expensive) exact index is consulted.
+ * <p>
+ * Every entry sets a number of bits within a single 512-bit block (the size of a typical cache line), which means
+ * that a key can be ruled out by reading one cache line. As a JID can be matched by several entries (its full JID,
+ * bare JID, domain and wildcards for each parent domain), a lookup probes the keys for each of those.
+ * <p>
+ * The filter has no false negatives: when it reports that a JID might be on the blacklist, the exact index decides.
+ * <p>
+ * Entries that are added to the blacklist as a change can be {@link #withAdditions(Collection) added} to a filter,
+ * without building it anew. As this only ever sets bits, a filter remains valid for the blacklist it was built for.
+ */
+final class BlacklistFilter implements EntryKey.Probe
+{
+    /**
+     * Use a probabilistic filter to quickly rule out addresses that are not on the blacklist.
+     */
+    public static final SystemProperty<Boolean> FILTER_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("blacklistspam.filter.enabled")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The desired fraction of addresses that are not on the blacklist, that are not ruled out by the probabilistic filter.
+     */
+    public static final SystemProperty<Double> FILTER_FALSE_POSITIVE_PROBABILITY = SystemProperty.Builder.ofType(Double.class)
+        .setKey("blacklistspam.filter.fpp")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(0.01)
+        .setMinValue(0.000001)
+        .setMaxValue(0.5)
+        .setDynamic(true)
+        .build();
+
+    private static final int BLOCK_BITS = 512;
+
+    private static final int LONGS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+
+    /**
+     * The factor by which the amount of entries in a filter can exceed the amount that it was sized for, before
+     * entries are no longer added to it. Beyond that, the false-positive probability degrades quickly.
+     */
+    private static final double MAX_LOAD_FACTOR = 1.25;
+
+    private final long[] bits;
+
+    private final int blockMask;
+
+    private final int hashCount;
+
+    private final int kinds;
+
+    /**
+     * The amount of entries that the filter was sized for.
+     */
+    private final int capacity;
+
+    /**
+     * The amount of entries that were included in the filter (including those of which the bits are shared with
+     * other instances).
+     */
+    private final int load;
+
+    private BlacklistFilter( final long[] bits, final int hashCount, final int kinds, final int capacity, final int load )
+    {
+        this.bits = bits;
+        this.blockMask = bits.length / LONGS_PER_BLOCK - 1;
+        this.hashCount = hashCount;
+        this.kinds = kinds;
+        this.capacity = capacity;
+        this.load = load;
+    }
+
+    /**
+     * Builds a filter for all entries of an index. The size of the filter is based on the amount of entries and the
+     * desired false-positive probability.
+     *
+     * @param entries The entries to include in the filter.
+     * @param falsePositiveProbability The desired false-positive probability (0.0 - 1.0, exclusive).
+     * @return A filter.
+     */
+    static BlacklistFilter build( final EnumerableBlacklistIndex entries, final double falsePositiveProbability )
+    {
+        if ( falsePositiveProbability <= 0.0 || falsePositiveProbability >= 1.0 )
+        {
+            throw new IllegalArgumentException( "Argument 'falsePositiveProbability' must be larger than 0.0 and smaller than 1.0, but was: " + falsePositiveProbability );
+        }
+
+        final int n = Math.max( 1, entries.size() );
+        final double ln2 = Math.log( 2 );
+        final long bitCount = (long) Math.ceil( -n * Math.log( falsePositiveProbability ) / (ln2 * ln2) );
+        final long blocksNeeded = Math.min( 1L << 26, Math.max( 1, (bitCount + BLOCK_BITS - 1) / BLOCK_BITS ) );
+        int blockCount = 1;
+        while ( blockCount < blocksNeeded )
+        {
+            blockCount <<= 1;
+        }
+        final int hashCount = (int) Math.max( 1, Math.min( 16, Math.round( (double) bitCount / n * ln2 ) ) );
+
+        final int[] kinds = new int[ 1 ];
+        entries.forEachEntry( entry -> kinds[ 0 ] |= EntryKey.kindOf( entry ) );
+
+        final BlacklistFilter result = new BlacklistFilter( new long[ blockCount * LONGS_PER_BLOCK ], hashCount, kinds[ 0 ], n, entries.size() );
+        entries.forEachEntry( entry -> result.add( EntryKey.hash( entry ) ) );
+        return result;
+    }
+
+    /**
+     * Returns a filter that includes the provided entries, in addition to the entries of this filter. The cost of this
+     * is proportional to the amount of provided entries: the new filter shares its bits with this filter, and sets
+     * the bits of the provided entries in place. As bits are only ever set, this filter continues to pass every JID
+     * that matches one of its own entries, also while it is in use by other threads.
+     * <p>
+     * Entries that are removed from the blacklist cannot be removed from a filter. Such entries merely cause more JIDs
+     * to be checked by the exact index.
+     *
+     * @param entries The entries to include, as they would occur in a block list (cannot be null).
+     * @return A filter, or null if the filter would hold too many entries for its size, in which case a new filter is
+     *         to be built.
+     */
+    BlacklistFilter withAdditions( final Collection<String> entries )
+    {
+        final long newLoad = (long) load + entries.size();
+        if ( newLoad > capacity * MAX_LOAD_FACTOR )
+        {
+            return null;
+        }
+
+        int newKinds = kinds;
+        for ( final String entry : entries )
+        {
+            newKinds |= EntryKey.kindOf( entry );
+        }
+        final BlacklistFilter result = new BlacklistFilter( bits, hashCount, newKinds, capacity, (int) newLoad );
+        for ( final String entry : entries )
+        {
+            result.add( EntryKey.hash( entry ) );
+        }
+        return result;
+    }
+
+    /**
+     * Verifies if the provided JID parts could match an entry on the blacklist.
+     *
+     * @param node The node-part of the JID to check (can be null).
+     * @param domain The domain-part of the JID to check (cannot be null).
+     * @param resource The resource-part of the JID to check (can be null).
+     * @return false if the JID is definitely not on the blacklist, true if it might be.
+     */
+    boolean mightContain( final String node, final String domain, final String resource )
+    {
+        return EntryKey.anyMatch( this, kinds, node, domain, resource );
+    }
+
+    @Override
+    public boolean probe( final long hash, final String node, final String domain, final int domainFrom, final String resource, final boolean wildcard )
+    {
+        final int base = ((int) hash & blockMask) * LONGS_PER_BLOCK;
+        long h = hash;
+        for ( int i = 0; i < hashCount; i++ )
+        {
+            h = next( h );
+            final int bit = (int) (h >>> 55); // 9 bits: 0 - 511
+            if ( (bits[ base + (bit >>> 6) ] & (1L << bit)) == 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add( final long hash )
+    {
+        final int base = ((int) hash & blockMask) * LONGS_PER_BLOCK;
+        long h = hash;
+        for ( int i = 0; i < hashCount; i++ )
+        {
+            h = next( h );
+            final int bit = (int) (h >>> 55);
+            bits[ base + (bit >>> 6) ] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Derives a new pseudo-random value from a hash (a 64-bit linear congruential step), of which the high bits are
+     * used to select a bit within a block.
+     */
+    private static long next( final long h )
+    {
+        return h * 0x5851F42D4C957F2DL + 0x14057B7EF767814FL;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+/**
+ * A read-only data structure that holds the entries of a {@link Blacklist}, optimized for lookups.
+ * <p>
+ * Implementations must be safe for concurrent use by multiple threads once they have been constructed. Indexes that
+ * can provide their entries implement {@link EnumerableBlacklistIndex}.
+ */
+interface BlacklistIndex
+{
+    /**
+     * Verifies if the index contains an entry that matches the provided JID parts. A match is said to occur when the
+     * index contains the full JID, the bare JID, the domain, or a wildcard entry for any of the parent domains of the
+     * domain.
+     *
+     * @param node The node-part of the JID to check (can be null).
+     * @param domain The domain-part of the JID to check (cannot be null).
+     * @param resource The resource-part of the JID to check (can be null).
+     * @return true if the index contains a matching entry, otherwise false.
+     */
+    boolean contains( String node, String domain, String resource );
+
+    /**
+     * Returns the entry of the index that causes the provided JID parts to match, as determined by
+     * {@link #contains(String, String, String)}. When more than one entry matches, the same entry is returned every
+     * time.
+     *
+     * @param node The node-part of the JID to check (can be null).
+     * @param domain The domain-part of the JID to check (cannot be null).
+     * @param resource The resource-part of the JID to check (can be null).
+     * @return The matching entry, in its textual representation (as it would occur in a block list), or null if the
+     *         index does not contain a matching entry.
+     */
+    String getMatchingEntry( String node, String domain, String resource );
+
+    /**
+     * Determines to what extent the JIDs of a domain are matched by the entries in the index.
+     * <p>
+     * This default implementation returns {@link Blacklist.DomainVerdict#PARTIAL} for every domain that is not
+     * blocked as a whole. Implementations are encouraged to be more precise.
+     *
+     * @param domain The domain to check (cannot be null).
+     * @return The verdict for the domain.
+     */
+    default Blacklist.DomainVerdict getDomainVerdict( final String domain )
+    {
+        return contains( null, domain, null ) ? Blacklist.DomainVerdict.BLOCKED : Blacklist.DomainVerdict.PARTIAL;
+    }
+
+    /**
+     * Returns the amount of unique entries in the index.
+     *
+     * @return the size of the index.
+     */
+    int size();
+}
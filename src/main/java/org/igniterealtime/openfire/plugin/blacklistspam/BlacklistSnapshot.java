@@ -0,0 +1,254 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.util.JiveGlobals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utility methods to store a blacklist on disk, and to restore it from there.
+ *
+ * A snapshot is a compact binary representation of the (already validated)
+ * index of a blacklist. Restoring it does not involve parsing or validating
+ * JIDs, which makes it suitable to be used during startup, before a blacklist
+ * can be obtained from its remote source. The same representation is used to
+ * distribute a blacklist to the other members of a cluster.
+ */
+public class BlacklistSnapshot
+{
+    private static final Logger Log = LoggerFactory.getLogger( BlacklistSnapshot.class );
+
+    private static final int MAGIC = 0x424C5354; // 'BLST'
+
+    private static final int VERSION = 3;
+
+    /**
+     * Returns the location where the snapshot of the blacklist that is in use is stored.
+     *
+     * @return A path to a file (that possibly does not exist).
+     */
+    public static Path getDefaultPath()
+    {
+        return JiveGlobals.getHomePath().resolve( "blacklist" ).resolve( "blacklist.snapshot" );
+    }
+
+    /**
+     * Returns the location where the blacklist that is in use is stored in its
+     * compiled, memory-mapped form (when that form is enabled).
+     *
+     * @return A path to a file (that possibly does not exist).
+     * @see BlacklistFactory#INDEX_MAPPED
+     */
+    public static Path getDefaultMappedPath()
+    {
+        return JiveGlobals.getHomePath().resolve( "blacklist" ).resolve( "blacklist.idx" );
+    }
+
+    /**
+     * Stores a blacklist on disk. An existing file is replaced only after the
+     * new snapshot has been written completely.
+     *
+     * @param blacklist The blacklist to store (cannot be null).
+     * @param path The file to write to (cannot be null).
+     * @throws IOException On any problem writing the file.
+     */
+    public static void write( Blacklist blacklist, Path path ) throws IOException
+    {
+        if ( blacklist == null )
+        {
+            throw new IllegalArgumentException( "Argument 'blacklist' cannot be null." );
+        }
+        if ( path == null )
+        {
+            throw new IllegalArgumentException( "Argument 'path' cannot be null." );
+        }
+        if ( !(blacklist.getEntries() instanceof DomainTrie) )
+        {
+            throw new IllegalArgumentException( "Only blacklists that are held in memory can be stored as a snapshot." );
+        }
+
+        Files.createDirectories( path.toAbsolutePath().getParent() );
+        final Path temp = path.resolveSibling( path.getFileName() + ".tmp" );
+        try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temp ) ) ) )
+        {
+            writeTo( blacklist, out );
+        }
+        Files.move( temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        Log.debug( "Stored blacklist with {} entries in {}", blacklist.size(), path );
+    }
+
+    /**
+     * Restores a blacklist that was stored on disk.
+     *
+     * @param path The file to read from (cannot be null).
+     * @return A blacklist, or null if the file does not exist or cannot be read.
+     */
+    public static Blacklist read( Path path )
+    {
+        if ( path == null )
+        {
+            throw new IllegalArgumentException( "Argument 'path' cannot be null." );
+        }
+
+        if ( !Files.isRegularFile( path ) )
+        {
+            Log.debug( "No blacklist snapshot exists at {}", path );
+            return null;
+        }
+
+        try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( path ) ) ) )
+        {
+            return readFrom( in );
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "An exception occurred while reading blacklist snapshot from {}", path, e );
+            return null;
+        }
+    }
+
+    /**
+     * Serializes a blacklist in the same format as the file that is written by {@link #write(Blacklist, Path)}.
+     *
+     * @param blacklist The blacklist to serialize (cannot be null).
+     * @return The serialized blacklist.
+     */
+    public static byte[] toBytes( Blacklist blacklist )
+    {
+        if ( blacklist == null )
+        {
+            throw new IllegalArgumentException( "Argument 'blacklist' cannot be null." );
+        }
+        if ( !(blacklist.getEntries() instanceof DomainTrie) )
+        {
+            throw new IllegalArgumentException( "Only blacklists that are held in memory can be serialized." );
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( final DataOutputStream out = new DataOutputStream( bytes ) )
+        {
+            writeTo( blacklist, out );
+        }
+        catch ( IOException e )
+        {
+            // Not expected when writing to memory.
+            throw new UncheckedIOException( e );
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores a blacklist that was serialized by {@link #toBytes(Blacklist)}.
+     *
+     * @param bytes The serialized blacklist (cannot be null).
+     * @return A blacklist, or null if the data is not a valid serialized blacklist.
+     */
+    public static Blacklist fromBytes( byte[] bytes )
+    {
+        if ( bytes == null )
+        {
+            throw new IllegalArgumentException( "Argument 'bytes' cannot be null." );
+        }
+
+        try ( final DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            return readFrom( in );
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "An exception occurred while reading a serialized blacklist.", e );
+            return null;
+        }
+    }
+
+    private static void writeTo( Blacklist blacklist, DataOutput out ) throws IOException
+    {
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        writeNullable( out, blacklist.getSource() );
+        writeNullable( out, blacklist.getETag() );
+        writeNullable( out, blacklist.getLastModified() );
+        out.writeLong( blacklist.getVersion() );
+        out.writeInt( blacklist.getMergedSources().size() );
+        for ( final String mergedSource : blacklist.getMergedSources() )
+        {
+            out.writeUTF( mergedSource );
+        }
+        ((DomainTrie) blacklist.getEntries()).writeTo( out );
+    }
+
+    private static Blacklist readFrom( DataInput in ) throws IOException
+    {
+        if ( in.readInt() != MAGIC )
+        {
+            Log.warn( "Unable to read blacklist snapshot: the data is not a blacklist snapshot." );
+            return null;
+        }
+        final int version = in.readInt();
+        if ( version < 1 || version > VERSION )
+        {
+            Log.warn( "Unable to read blacklist snapshot: unsupported version {}.", version );
+            return null;
+        }
+        final String source = readNullable( in );
+        final String eTag = readNullable( in );
+        final String lastModified = readNullable( in );
+        // Snapshots of the first version predate versioned content, and those of the first two predate merged sources.
+        final long contentVersion = version < 2 ? Blacklist.UNKNOWN_VERSION : in.readLong();
+        final List<String> mergedSources = new ArrayList<>();
+        final int mergedSourceCount = version < 3 ? 0 : in.readInt();
+        for ( int i = 0; i < mergedSourceCount; i++ )
+        {
+            mergedSources.add( in.readUTF() );
+        }
+        return new Blacklist( DomainTrie.readFrom( in, version >= 3 ) )
+            .withValidators( source, eTag, lastModified )
+            .withVersion( contentVersion )
+            .withMergedSources( mergedSources );
+    }
+
+    private static void writeNullable( DataOutput out, String value ) throws IOException
+    {
+        out.writeBoolean( value != null );
+        if ( value != null )
+        {
+            out.writeUTF( value );
+        }
+    }
+
+    private static String readNullable( DataInput in ) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
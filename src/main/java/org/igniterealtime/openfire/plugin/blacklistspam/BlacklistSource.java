@@ -0,0 +1,266 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+/**
+ * A resource from which (part of) the blacklist is obtained, together with the outcome of the attempts to obtain it.
+ *
+ * Every source keeps the blacklist that was last obtained from it, including the HTTP validators and version of that
+ * blacklist. That allows each source to be refreshed conditionally, independently of other sources.
+ *
+ * A source of which the URL uses the 'file' protocol is a local file, which is read only when its size or last
+ * modification time changed.
+ */
+public class BlacklistSource
+{
+    private static final Logger Log = LoggerFactory.getLogger( BlacklistSource.class );
+
+    private final URL url;
+
+    /**
+     * The local file of this source, or null if this source is not a local file.
+     */
+    private final Path path;
+
+    private volatile Blacklist blacklist;
+
+    private volatile int consecutiveFailures;
+
+    private volatile Instant lastSuccess;
+
+    private volatile Instant lastFailure;
+
+    /**
+     * Creates a source.
+     *
+     * @param url The URL of the resource (cannot be null).
+     * @param blacklist The blacklist that was previously obtained from the resource (can be null).
+     */
+    BlacklistSource( final URL url, final Blacklist blacklist )
+    {
+        if ( url == null )
+        {
+            throw new IllegalArgumentException( "Argument 'url' cannot be null." );
+        }
+        this.url = url;
+        this.path = toPath( url );
+        this.blacklist = blacklist;
+    }
+
+    private static Path toPath( final URL url )
+    {
+        if ( !"file".equalsIgnoreCase( url.getProtocol() ) )
+        {
+            return null;
+        }
+        try
+        {
+            return Paths.get( url.toURI() ).toAbsolutePath().normalize();
+        }
+        catch ( URISyntaxException | IllegalArgumentException e )
+        {
+            // For example, a URL that contains unescaped spaces.
+            return Paths.get( url.getPath() ).toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Obtains the blacklist from the resource. When possible, only the changes since the blacklist that was last
+     * obtained are requested, or the request is made conditional.
+     *
+     * @param full true to obtain the blacklist as a whole, even if it was not modified.
+     * @param deltaUrlTemplate A URL from which to obtain the changes to the blacklist, in which '{version}' is to be replaced by the version of the blacklist that was last obtained (can be null).
+     * @return The outcome.
+     */
+    Outcome refresh( final boolean full, final String deltaUrlTemplate )
+    {
+        final Blacklist previous = full ? null : blacklist;
+        Blacklist result = path == null ? fetchChanges( previous, deltaUrlTemplate ) : null;
+        if ( result == null )
+        {
+            result = path == null ? BlacklistFactory.fromURL( url, previous ) : BlacklistFactory.fromFile( path, previous );
+        }
+
+        if ( result == null )
+        {
+            consecutiveFailures++;
+            lastFailure = Instant.now();
+            Log.warn( "Failed to refresh blacklist from {}.", url );
+            return Outcome.FAILED;
+        }
+
+        consecutiveFailures = 0;
+        lastSuccess = Instant.now();
+        if ( result == previous )
+        {
+            Log.info( "Blacklist at {} was not modified since it was last obtained.", url );
+            return Outcome.UNMODIFIED;
+        }
+        blacklist = result;
+        return Outcome.MODIFIED;
+    }
+
+    /**
+     * Obtains the changes that were made to a blacklist since it was obtained, if a URL to obtain these from is
+     * configured.
+     *
+     * @return The blacklist with the changes applied (which is the previous blacklist if nothing changed), or null if the changes could not be obtained.
+     */
+    private static Blacklist fetchChanges( final Blacklist previous, final String deltaUrlTemplate )
+    {
+        if ( deltaUrlTemplate == null || deltaUrlTemplate.isBlank() || previous == null )
+        {
+            return null;
+        }
+        if ( previous.getVersion() == Blacklist.UNKNOWN_VERSION || !(previous.getEntries() instanceof DomainTrie) )
+        {
+            Log.debug( "Not obtaining changes to the blacklist: the version of the blacklist that is in use is not known, or it is not held in memory." );
+            return null;
+        }
+
+        final String urlValue = deltaUrlTemplate.replace( "{version}", Long.toString( previous.getVersion() ) );
+        try
+        {
+            final Blacklist result = BlacklistFactory.fromDeltaURL( new URL( urlValue ), previous );
+            if ( result == null )
+            {
+                Log.info( "Unable to obtain changes to the blacklist from {}. Obtaining the blacklist as a whole instead.", urlValue );
+            }
+            return result;
+        }
+        catch ( MalformedURLException e )
+        {
+            Log.error( "Unable to parse value as URL: {}.", urlValue, e );
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the blacklist that was last obtained from the resource by an equivalent instance (for example, one that
+     * holds its entries in a different index).
+     *
+     * @param blacklist The blacklist to retain (cannot be null).
+     */
+    void retain( final Blacklist blacklist )
+    {
+        this.blacklist = blacklist;
+    }
+
+    public String getUrl()
+    {
+        return url.toExternalForm();
+    }
+
+    /**
+     * Returns the local file of this source.
+     *
+     * @return A path, or null if this source is not a local file.
+     */
+    Path getPath()
+    {
+        return path;
+    }
+
+    Blacklist getBlacklist()
+    {
+        return blacklist;
+    }
+
+    /**
+     * Checks if the blacklist that was last obtained from the resource can be merged with those of other sources.
+     *
+     * @return true if a blacklist was obtained, of which the entries are held in memory.
+     */
+    boolean isMergeable()
+    {
+        final Blacklist current = blacklist;
+        return current != null && current.getEntries() instanceof DomainTrie;
+    }
+
+    /**
+     * Returns the amount of entries of the blacklist that was last obtained from the resource.
+     *
+     * @return An amount of entries, or -1 if no blacklist was obtained.
+     */
+    public int getSize()
+    {
+        final Blacklist current = blacklist;
+        return current == null ? -1 : current.size();
+    }
+
+    /**
+     * Returns the amount of attempts to obtain the blacklist from the resource that have failed since the last
+     * successful attempt.
+     *
+     * @return An amount of failures.
+     */
+    public int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns the moment at which the blacklist was last successfully obtained from the resource.
+     *
+     * @return A moment in time, or null if the blacklist was not obtained since the plugin was started.
+     */
+    public Instant getLastSuccess()
+    {
+        return lastSuccess;
+    }
+
+    /**
+     * Returns the moment at which an attempt to obtain the blacklist from the resource last failed.
+     *
+     * @return A moment in time, or null if no attempt failed since the plugin was started.
+     */
+    public Instant getLastFailure()
+    {
+        return lastFailure;
+    }
+
+    /**
+     * The outcome of an attempt to obtain the blacklist from its resource.
+     */
+    enum Outcome
+    {
+        /**
+         * A blacklist was obtained that differs from the one that was previously obtained.
+         */
+        MODIFIED,
+
+        /**
+         * The blacklist was not modified since it was previously obtained.
+         */
+        UNMODIFIED,
+
+        /**
+         * The blacklist could not be obtained.
+         */
+        FAILED
+    }
+}
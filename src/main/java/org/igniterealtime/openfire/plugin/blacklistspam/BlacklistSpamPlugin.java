@@ -17,29 +17,51 @@
 package org.igniterealtime.openfire.plugin.blacklistspam;
 
 import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.cluster.ClusterEventListener;
+import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.container.Plugin;
 import org.jivesoftware.openfire.container.PluginManager;
+import org.jivesoftware.openfire.event.ServerSessionEventDispatcher;
 import org.jivesoftware.openfire.interceptor.InterceptorManager;
 import org.jivesoftware.util.SystemProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An Openfire plugin that rejects stanzas based on their addressing. Stanza
  * addresses are compared to a list of JIDs that is periodically retrieved from
  * an HTTP endpoint.
+ * <p>
+ * In a cluster, only the senior member retrieves the blacklist. It distributes
+ * the blacklist to the other members, which do not retrieve it themselves.
  *
  * @author Guus der Kinderen, guus.der.kinderen@gmail.com
  */
-public class BlacklistSpamPlugin implements Plugin
+public class BlacklistSpamPlugin implements Plugin, ClusterEventListener
 {
     private static final Logger Log = LoggerFactory.getLogger( BlacklistSpamPlugin.class );
 
@@ -53,6 +75,30 @@ public class BlacklistSpamPlugin implements Plugin
         .setDynamic(true)
         .build();
 
+    /**
+     * URLs from where to obtain additional block lists, in the same format as the block list that is obtained from
+     * {@link #CONNECTION_CONNECT_REQUEST_URL}. All block lists are obtained concurrently, and merged into one.
+     */
+    @SuppressWarnings( "unchecked" ) // SystemProperty.Builder only accepts the raw List class for list properties.
+    public static final SystemProperty<List<String>> CONNECTION_REQUEST_ADDITIONAL_URLS = SystemProperty.Builder.ofType(List.class)
+        .setKey("blacklistspam.connection.request.additional.urls")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(Collections.emptyList())
+        .setDynamic(true)
+        .buildList(String.class);
+
+    /**
+     * URL from where to obtain the changes that were made to the block list at {@link #CONNECTION_CONNECT_REQUEST_URL}
+     * since the version that is in use. The placeholder {@code {version}} is replaced by that version. When empty, or
+     * when the version of the block list that is in use is not known, the block list is obtained as a whole.
+     */
+    public static final SystemProperty<String> CONNECTION_REQUEST_DELTA_URL = SystemProperty.Builder.ofType(String.class)
+        .setKey("blacklistspam.connection.request.delta.url")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue("")
+        .setDynamic(true)
+        .build();
+
     /**
      * The frequency in which to retrieve and refresh the block list.
      */
@@ -66,73 +112,700 @@ public class BlacklistSpamPlugin implements Plugin
         .addListener((v) -> ((BlacklistSpamPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName("Spam blacklist").orElseThrow()).rescheduleTask())
         .build();
 
+    /**
+     * The delay after which a failed attempt to retrieve the block list is retried. This delay doubles after every
+     * consecutive failure, up to the refresh interval.
+     */
+    public static final SystemProperty<Duration> REFRESH_RETRY_DELAY = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("blacklistspam.refresh.retry.delay")
+        .setPlugin("Spam blacklist")
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDefaultValue(Duration.ofSeconds(30))
+        .setMinValue(Duration.ofSeconds(1))
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The amount of changes, relative to the size of the blacklist, that are to be applied to a blacklist before its
+     * perfect hash index is built anew. This bounds the cost of building the index per change.
+     */
+    private static final double PERFECTHASH_REBUILD_FRACTION = 0.1;
+
+    private final BlacklistCluster cluster;
     private StanzaBlocker stanzaBlocker;
-    private Timer timer;
+    private SessionGate sessionGate;
+    private ScheduledExecutorService scheduler;
+    private volatile ExecutorService fetchExecutor;
+    private volatile BlacklistFileWatcher fileWatcher;
+    private ScheduledFuture<?> refreshTask;
+    private Instant nextRefresh;
+    private int consecutiveFailures;
+    private volatile Duration lastRefreshDuration;
+
+    /**
+     * The serialized form of the blacklist that was last retrieved by this node as the senior member of a cluster,
+     * which is sent to nodes that join the cluster.
+     */
+    private volatile byte[] clusterSnapshot;
+
+    /**
+     * The resources from which the blacklist is obtained, in the order in which their entries are merged.
+     */
+    private volatile List<BlacklistSource> sources = Collections.emptyList();
+
+    /**
+     * Constructs a plugin that is a member of the cluster that Openfire is configured with (if any).
+     */
+    public BlacklistSpamPlugin()
+    {
+        this( BlacklistCluster.OPENFIRE );
+    }
+
+    /**
+     * Constructs a plugin that retrieves and distributes the blacklist as a member of the provided cluster, rather than
+     * of the cluster that Openfire is configured with.
+     *
+     * @param cluster The cluster of which this node is a member (cannot be null).
+     */
+    BlacklistSpamPlugin( final BlacklistCluster cluster )
+    {
+        if ( cluster == null )
+        {
+            throw new IllegalArgumentException( "Argument 'cluster' cannot be null." );
+        }
+        this.cluster = cluster;
+    }
 
     @Override
     public synchronized void initializePlugin( final PluginManager manager, final File pluginDirectory )
     {
-        stanzaBlocker = new StanzaBlocker();
+        start();
         InterceptorManager.getInstance().addInterceptor( stanzaBlocker );
+        ServerSessionEventDispatcher.addListener( sessionGate );
+        BlacklistStatistics.register( this );
+        ClusterManager.addListener( this );
         rescheduleTask();
     }
 
+    /**
+     * Installs the blacklist that was stored on disk (if any), and starts the threads that refresh it. This does not
+     * register the plugin with Openfire, nor does it schedule a refresh.
+     */
+    synchronized void start()
+    {
+        stanzaBlocker = new StanzaBlocker();
+        loadSnapshot();
+        sessionGate = new SessionGate( stanzaBlocker );
+        fetchExecutor = Executors.newCachedThreadPool( runnable -> {
+            final Thread thread = new Thread( runnable, "blacklistspam-fetch" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            final Thread thread = new Thread( runnable, "blacklistspam-refresh" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        fileWatcher = new BlacklistFileWatcher( this::refreshOnce );
+    }
+
+    /**
+     * Installs the blacklist that was stored on disk after the last successful refresh (if any), so that stanzas are
+     * blocked without having to wait for the blacklist to be obtained from its remote source.
+     */
+    private void loadSnapshot()
+    {
+        final long start = System.nanoTime();
+        Path path = BlacklistSnapshot.getDefaultMappedPath();
+        Blacklist blacklist = BlacklistFactory.INDEX_MAPPED.getValue() ? BlacklistFactory.fromMappedFile( path ) : null;
+        if ( blacklist == null )
+        {
+            path = BlacklistSnapshot.getDefaultPath();
+            blacklist = BlacklistSnapshot.read( path );
+        }
+        if ( blacklist != null )
+        {
+            install( blacklist );
+            Log.info( "Loaded blacklist with {} entries from {} in {} ms.", blacklist.size(), path, Duration.ofNanos( System.nanoTime() - start ).toMillis() );
+        }
+    }
+
     @Override
     public synchronized void destroyPlugin()
     {
+        ClusterManager.removeListener( this );
+        BlacklistStatistics.unregister();
+
+        if ( sessionGate != null )
+        {
+            ServerSessionEventDispatcher.removeListener( sessionGate );
+            sessionGate = null;
+        }
+
         if ( stanzaBlocker != null )
         {
             InterceptorManager.getInstance().removeInterceptor( stanzaBlocker );
         }
 
-        if ( timer != null )
+        stop();
+    }
+
+    /**
+     * Stops the threads that were started by {@link #start()}.
+     */
+    synchronized void stop()
+    {
+        if ( stanzaBlocker != null )
+        {
+            stanzaBlocker.shutdown();
+        }
+
+        if ( scheduler != null )
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+            refreshTask = null;
+            nextRefresh = null;
+        }
+
+        if ( fetchExecutor != null )
         {
-            timer.cancel();
-            timer = null;
+            fetchExecutor.shutdownNow();
+            fetchExecutor = null;
+        }
+
+        if ( fileWatcher != null )
+        {
+            fileWatcher.shutdown();
+            fileWatcher = null;
         }
     }
 
+    /**
+     * Cancels the pending refresh of the blacklist (if any), and refreshes the blacklist immediately. Subsequent
+     * refreshes are scheduled based on the outcome of each refresh.
+     */
     public synchronized void rescheduleTask()
     {
-        if ( timer != null )
+        consecutiveFailures = 0;
+        schedule( Duration.ZERO );
+    }
+
+    /**
+     * Refreshes the blacklist once, in addition to the scheduled refreshes. Unlike {@link #rescheduleTask()}, this
+     * leaves the schedule, including the delay after consecutive failures, unaffected.
+     */
+    private synchronized void refreshOnce()
+    {
+        if ( scheduler == null )
+        {
+            return;
+        }
+        scheduler.execute( () -> {
+            try
+            {
+                if ( !refresh() )
+                {
+                    Log.info( "Refreshing the blacklist outside of its schedule failed. The next refresh is scheduled at {}.", getNextRefresh() );
+                }
+            }
+            catch ( Throwable t )
+            {
+                Log.error( "An unexpected exception occurred while refreshing the blacklist.", t );
+            }
+        } );
+    }
+
+    /**
+     * Returns the moment at which the next refresh of the blacklist is scheduled.
+     *
+     * @return A moment in time, or null if no refresh is scheduled.
+     */
+    public synchronized Instant getNextRefresh()
+    {
+        return nextRefresh;
+    }
+
+    /**
+     * Returns how long the last successful refresh of the blacklist took, including the time to retrieve, store and
+     * install it.
+     *
+     * @return A duration, or null if the blacklist was not refreshed since the plugin was started.
+     */
+    public Duration getLastRefreshDuration()
+    {
+        return lastRefreshDuration;
+    }
+
+    /**
+     * Returns the resources from which the blacklist is obtained.
+     *
+     * @return The sources of the blacklist, in the order in which they are configured.
+     */
+    public List<BlacklistSource> getSources()
+    {
+        return sources;
+    }
+
+    /**
+     * Returns the amount of attempts to refresh the blacklist that have failed since the last successful refresh.
+     *
+     * @return An amount of failures.
+     */
+    public synchronized int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+    private synchronized void schedule( final Duration delay )
+    {
+        if ( scheduler == null )
+        {
+            return;
+        }
+        if ( refreshTask != null )
+        {
+            refreshTask.cancel( false );
+        }
+        nextRefresh = Instant.now().plus( delay );
+        refreshTask = scheduler.schedule( this::runRefresh, delay.toMillis(), TimeUnit.MILLISECONDS );
+    }
+
+    private void runRefresh()
+    {
+        boolean success;
+        try
+        {
+            success = refresh();
+        }
+        catch ( Throwable t )
+        {
+            Log.error( "An unexpected exception occurred while refreshing the blacklist.", t );
+            success = false;
+        }
+
+        synchronized ( this )
+        {
+            final Duration interval = REFRESH_INTERVAL.getValue();
+            if ( success )
+            {
+                consecutiveFailures = 0;
+                schedule( interval );
+            }
+            else
+            {
+                consecutiveFailures++;
+                final Duration delay = retryDelay( consecutiveFailures, interval );
+                Log.info( "Refreshing the blacklist failed {} consecutive time(s). Retrying in {}.", consecutiveFailures, delay );
+                schedule( delay );
+            }
+        }
+    }
+
+    /**
+     * Calculates the delay before the next attempt to refresh the blacklist, after a number of consecutive failures.
+     * The delay grows exponentially, is capped at the refresh interval, and is randomized by up to 20% to prevent
+     * multiple servers from retrying in lockstep.
+     */
+    static Duration retryDelay( final int consecutiveFailures, final Duration interval )
+    {
+        final long initial = REFRESH_RETRY_DELAY.getValue().toMillis();
+        final long exponential = initial << Math.min( consecutiveFailures - 1, 30 );
+        final long capped = exponential <= 0 ? interval.toMillis() : Math.min( exponential, interval.toMillis() );
+        final double jitter = 0.8 + ThreadLocalRandom.current().nextDouble() * 0.4;
+        return Duration.ofMillis( Math.min( (long) (capped * jitter), interval.toMillis() ) );
+    }
+
+    /**
+     * Obtains the blacklist from its remote sources, and installs it if it changed. The sources are obtained
+     * concurrently. When there are multiple sources, their blacklists are merged into one.
+     *
+     * @return true if the blacklist was obtained from all sources (even if it did not change), false otherwise.
+     */
+    boolean refresh()
+    {
+        if ( cluster.isStarted() && !cluster.isSeniorMember() )
+        {
+            Log.debug( "Not refreshing the blacklist: it is retrieved by the senior member of the cluster." );
+            return true;
+        }
+
+        final ExecutorService executor = fetchExecutor;
+        if ( executor == null )
+        {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        final boolean removed = updateSources( stanzaBlocker.getBlacklist() );
+        final List<BlacklistSource> sources = this.sources;
+        if ( sources.isEmpty() )
+        {
+            Log.warn( "Unable to refresh the blacklist: no valid URL is configured." );
+            return false;
+        }
+
+        // A senior member that has not yet distributed a blacklist needs the full content, rather than learning that it is unmodified.
+        final boolean undistributed = cluster.isStarted() && clusterSnapshot == null;
+        final boolean merged = sources.size() > 1;
+        final String primaryUrl = CONNECTION_CONNECT_REQUEST_URL.getValue() == null ? null : CONNECTION_CONNECT_REQUEST_URL.getValue().trim();
+        final String deltaUrlTemplate = CONNECTION_REQUEST_DELTA_URL.getValue();
+        final List<CompletableFuture<BlacklistSource.Outcome>> outcomes = new ArrayList<>( sources.size() );
+        for ( final BlacklistSource source : sources )
+        {
+            // Blacklists that are not held in memory cannot be merged, and need to be obtained anew.
+            final boolean full = undistributed || (merged && !source.isMergeable());
+            // Changes are only obtained for the primary source, which is the only one for which a URL for them is configured.
+            final String delta = source.getUrl().equals( primaryUrl ) ? deltaUrlTemplate : null;
+            outcomes.add( CompletableFuture.supplyAsync( () -> source.refresh( full, delta ), executor ) );
+        }
+
+        boolean modified = removed;
+        int failures = 0;
+        for ( final CompletableFuture<BlacklistSource.Outcome> outcome : outcomes )
+        {
+            switch ( outcome.join() )
+            {
+                case MODIFIED:
+                    modified = true;
+                    break;
+                case FAILED:
+                    failures++;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // A single source that is unmodified provides the blacklist that is in use, which might not be held in memory.
+        final Blacklist blacklist = modified ? merge( sources ) : null;
+        if ( blacklist != null && blacklist != stanzaBlocker.getBlacklist() )
+        {
+            distribute( blacklist );
+            install( persist( blacklist ) );
+            if ( !merged )
+            {
+                // Rather than keeping the entries a second time, possibly held in a different index. Changes can only be
+                // applied to entries that are held in memory, which are kept when changes are obtained for this source.
+                final BlacklistSource source = sources.get( 0 );
+                final Blacklist installed = stanzaBlocker.getBlacklist();
+                final boolean changesObtained = source.getPath() == null && source.getUrl().equals( primaryUrl ) && deltaUrlTemplate != null && !deltaUrlTemplate.isBlank();
+                if ( changesObtained && blacklist.getEntries() instanceof DomainTrie && !(installed.getEntries() instanceof DomainTrie) )
+                {
+                    source.retain( installed.withEntries( blacklist.getEntries() ) );
+                }
+                else
+                {
+                    source.retain( installed );
+                }
+            }
+            lastRefreshDuration = Duration.ofNanos( System.nanoTime() - start );
+            Log.info( "Refreshed blacklist from {} source(s) in {} ms.", sources.size(), lastRefreshDuration.toMillis() );
+        }
+        else if ( failures == 0 )
+        {
+            lastRefreshDuration = Duration.ofNanos( System.nanoTime() - start );
+        }
+        return failures == 0;
+    }
+
+    /**
+     * Updates the sources of the blacklist to match the configured URLs. Sources of URLs that remain configured retain
+     * their state. A new source starts with the blacklist that is in use, if that was obtained from its URL.
+     *
+     * @param current The blacklist that is in use (can be null).
+     * @return true if sources were removed, otherwise false.
+     */
+    private boolean updateSources( final Blacklist current )
+    {
+        final List<String> configured = new ArrayList<>();
+        configured.add( CONNECTION_CONNECT_REQUEST_URL.getValue() );
+        if ( CONNECTION_REQUEST_ADDITIONAL_URLS.getValue() != null )
+        {
+            configured.addAll( CONNECTION_REQUEST_ADDITIONAL_URLS.getValue() );
+        }
+        final Set<String> urls = new LinkedHashSet<>();
+        for ( final String value : configured )
         {
-            timer.cancel();
-            timer = null;
+            if ( value != null && !value.isBlank() )
+            {
+                urls.add( value.trim() );
+            }
         }
 
-        timer = new Timer();
-        timer.schedule( new TimerTask()
+        final Map<String, BlacklistSource> existing = new HashMap<>();
+        for ( final BlacklistSource source : sources )
         {
-            @Override
-            public void run()
+            existing.put( source.getUrl(), source );
+        }
+
+        final List<BlacklistSource> updated = new ArrayList<>();
+        for ( final String value : urls )
+        {
+            if ( updated.size() == DomainTrie.MAX_SOURCES )
+            {
+                Log.warn( "Ignoring blacklist source {}: at most {} sources are supported.", value, DomainTrie.MAX_SOURCES );
+                continue;
+            }
+
+            BlacklistSource source = existing.get( value );
+            if ( source == null )
             {
-                final String urlValue = CONNECTION_CONNECT_REQUEST_URL.getValue();
                 try
                 {
-                    final URL url = new URL( urlValue );
-                    final Blacklist blacklist = BlacklistFactory.fromURL( url );
-                    if ( blacklist != null )
-                    {
-                        stanzaBlocker.setBlacklist( blacklist );
-                        Log.info( "Refreshed blacklist from {}", url );
-                    }
-                    else
-                    {
-                        Log.warn( "Failed to refresh blacklist from {}.", url );
-                    }
+                    final URL url = new URL( value );
+                    source = new BlacklistSource( url, current != null && url.toExternalForm().equals( current.getSource() ) ? current : null );
                 }
                 catch ( MalformedURLException e )
                 {
-                    Log.error( "Unable to parse value as URL: {}.", urlValue, e );
+                    Log.error( "Unable to parse value as URL: {}.", value, e );
+                    continue;
                 }
             }
-        },
-            0,
-            REFRESH_INTERVAL.getValue().toMillis()
-        );
+            updated.add( source );
+        }
+
+        final boolean removed = !updated.containsAll( sources );
+        sources = Collections.unmodifiableList( updated );
+
+        final BlacklistFileWatcher watcher = fileWatcher;
+        if ( watcher != null )
+        {
+            final Set<Path> files = new HashSet<>();
+            for ( final BlacklistSource source : updated )
+            {
+                if ( source.getPath() != null )
+                {
+                    files.add( source.getPath() );
+                }
+            }
+            watcher.watch( files );
+        }
+        return removed;
+    }
+
+    /**
+     * Merges the blacklists of all sources from which a blacklist was obtained.
+     *
+     * @return A blacklist, or null if no blacklist was obtained from any source.
+     */
+    private static Blacklist merge( final List<BlacklistSource> sources )
+    {
+        final List<Blacklist> blacklists = new ArrayList<>( sources.size() );
+        for ( final BlacklistSource source : sources )
+        {
+            if ( sources.size() > 1 && !source.isMergeable() )
+            {
+                Log.warn( "Unable to merge the entries of blacklist source {}: no blacklist that is held in memory was obtained from it.", source.getUrl() );
+                continue;
+            }
+            if ( source.getBlacklist() != null )
+            {
+                blacklists.add( source.getBlacklist() );
+            }
+        }
+        return blacklists.isEmpty() ? null : BlacklistFactory.merge( blacklists );
+    }
+
+    /**
+     * Replaces the blacklist that is in use, and closes sessions of remote domains that are blocked by the new
+     * blacklist, but were not by the one that it replaces.
+     *
+     * @param blacklist The blacklist to use.
+     */
+    private void install( Blacklist blacklist )
+    {
+        if ( BlacklistFilter.FILTER_ENABLED.getValue() && !blacklist.hasFilter() )
+        {
+            blacklist = blacklist.withFilter( BlacklistFilter.FILTER_FALSE_POSITIVE_PROBABILITY.getValue() );
+        }
+        else if ( !BlacklistFilter.FILTER_ENABLED.getValue() && blacklist.hasFilter() )
+        {
+            // Retained from the blacklist that changes were applied to.
+            blacklist = blacklist.withoutFilter();
+        }
+        if ( BlacklistFactory.INDEX_PERFECTHASH.getValue() && blacklist.getEntries() instanceof DomainTrie )
+        {
+            // After the filter has been built, as this index cannot enumerate its entries. Until enough changes have
+            // accumulated to make up for the cost of building it anew, changed entries are looked up in the trie.
+            final int changes = blacklist.getChangesSinceIndexed();
+            if ( changes == 0 || changes >= blacklist.size() * PERFECTHASH_REBUILD_FRACTION )
+            {
+                blacklist = BlacklistFactory.toPerfectHashIndex( blacklist );
+            }
+            else
+            {
+                Log.debug( "Not building a perfect hash index for {} changes to a blacklist with {} entries.", changes, blacklist.size() );
+            }
+        }
+        final Blacklist previous = stanzaBlocker.getBlacklist();
+        stanzaBlocker.setBlacklist( blacklist );
+
+        final SessionGate gate = sessionGate;
+        if ( gate != null )
+        {
+            try
+            {
+                final int closed = gate.closeSessionsOfNewlyBlockedDomains( previous, blacklist );
+                if ( closed > 0 )
+                {
+                    Log.info( "Closed {} incoming server session(s) of domains that were added to the blacklist.", closed );
+                }
+            }
+            catch ( Exception e )
+            {
+                Log.warn( "An exception occurred while closing sessions of domains that were added to the blacklist.", e );
+            }
+        }
+    }
+
+    /**
+     * Sends a blacklist that was obtained from its remote source to the other members of the cluster (if any).
+     */
+    private void distribute( final Blacklist blacklist )
+    {
+        if ( !cluster.isStarted() )
+        {
+            clusterSnapshot = null;
+            return;
+        }
+        try
+        {
+            final byte[] snapshot = BlacklistSnapshot.toBytes( blacklist );
+            clusterSnapshot = snapshot;
+            cluster.sendToOthers( new InstallBlacklistTask( snapshot ) );
+            Log.debug( "Sent blacklist with {} entries ({} bytes) to the other members of the cluster.", blacklist.size(), snapshot.length );
+        }
+        catch ( Exception e )
+        {
+            Log.warn( "An exception occurred while sending the blacklist to the other members of the cluster.", e );
+        }
+    }
+
+    /**
+     * Installs a blacklist that was retrieved by the senior member of the cluster. The blacklist is stored and
+     * installed on the thread that refreshes the blacklist, rather than on the thread that executes the cluster task.
+     *
+     * @param snapshot The serialized blacklist (cannot be null).
+     */
+    void installFromCluster( final byte[] snapshot )
+    {
+        final ScheduledExecutorService executor;
+        synchronized ( this )
+        {
+            executor = scheduler;
+        }
+        if ( executor == null )
+        {
+            return;
+        }
+        executor.execute( () -> {
+            try
+            {
+                final Blacklist blacklist = BlacklistSnapshot.fromBytes( snapshot );
+                if ( blacklist == null )
+                {
+                    Log.warn( "Unable to install the blacklist that was received from the senior member of the cluster." );
+                    return;
+                }
+                final long start = System.nanoTime();
+                install( persist( blacklist ) );
+                lastRefreshDuration = Duration.ofNanos( System.nanoTime() - start );
+                Log.info( "Installed blacklist with {} entries that was received from the senior member of the cluster.", blacklist.size() );
+            }
+            catch ( Throwable t )
+            {
+                Log.error( "An unexpected exception occurred while installing the blacklist that was received from the cluster.", t );
+            }
+        } );
+    }
+
+    @Override
+    public void joinedCluster()
+    {
+        // Until the senior member sends its blacklist, keep using the one that is installed.
+        if ( cluster.isSeniorMember() )
+        {
+            refreshOnce();
+        }
+    }
+
+    @Override
+    public void joinedCluster( final byte[] nodeID )
+    {
+        final byte[] snapshot = clusterSnapshot;
+        if ( snapshot == null || !cluster.isSeniorMember() )
+        {
+            return;
+        }
+        try
+        {
+            cluster.sendTo( new InstallBlacklistTask( snapshot ), nodeID );
+        }
+        catch ( Exception e )
+        {
+            Log.warn( "An exception occurred while sending the blacklist to a node that joined the cluster.", e );
+        }
+    }
+
+    @Override
+    public void leftCluster()
+    {
+        // Now on its own, this node needs to retrieve the blacklist itself.
+        clusterSnapshot = null;
+        refreshOnce();
+    }
+
+    @Override
+    public void leftCluster( final byte[] nodeID )
+    {
+    }
+
+    @Override
+    public void markedAsSeniorClusterMember()
+    {
+        // Retrieve the blacklist now, so that it can be sent to nodes that join the cluster later.
+        clusterSnapshot = null;
+        refreshOnce();
+    }
+
+    /**
+     * Stores a blacklist that was obtained from its remote source on disk. When the blacklist is to be memory-mapped,
+     * this returns the instance that is backed by the compiled file.
+     *
+     * @param blacklist The blacklist to store.
+     * @return The blacklist that is to be used.
+     */
+    private Blacklist persist( final Blacklist blacklist )
+    {
+        if ( BlacklistFactory.INDEX_MAPPED.getValue() )
+        {
+            try
+            {
+                return BlacklistFactory.toMappedFile( blacklist, BlacklistSnapshot.getDefaultMappedPath() );
+            }
+            catch ( IOException e )
+            {
+                Log.warn( "Unable to compile the blacklist into a memory-mapped file. The blacklist will be kept in memory instead.", e );
+            }
+        }
+
+        try
+        {
+            BlacklistSnapshot.write( blacklist, BlacklistSnapshot.getDefaultPath() );
+        }
+        catch ( IOException e )
+        {
+            Log.warn( "Unable to store a snapshot of the blacklist.", e );
+        }
+        return blacklist;
     }
 
     public StanzaBlocker getStanzaBlocker() {
         return stanzaBlocker;
     }
+
+    public SessionGate getSessionGate() {
+        return sessionGate;
+    }
 }
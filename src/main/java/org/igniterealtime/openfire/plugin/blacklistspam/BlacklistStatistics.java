@@ -0,0 +1,203 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.openfire.stats.i18nStatistic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Registers statistics of the plugin with Openfire's {@link StatisticsManager}, which makes them available to the
+ * statistics graphs and monitoring of Openfire. The latency histogram of the {@link StanzaBlocker} is registered as an
+ * MBean with the platform MBean server.
+ * <p>
+ * The statistics are sampled from counters that are maintained by the {@link StanzaBlocker} and the plugin. Sampling
+ * happens on the thread of the statistics manager: it does not add any synchronization to the processing of stanzas.
+ */
+final class BlacklistStatistics
+{
+    private static final Logger Log = LoggerFactory.getLogger( BlacklistStatistics.class );
+
+    static final String STANZAS_CHECKED_KEY = "blacklistspam_stanzas_checked";
+    static final String STANZAS_REJECTED_KEY = "blacklistspam_stanzas_rejected";
+    static final String LOOKUP_LATENCY_KEY = "blacklistspam_lookup_latency";
+    static final String REFRESH_DURATION_KEY = "blacklistspam_refresh_duration";
+
+    static final String LATENCY_HISTOGRAM_OBJECT_NAME = "org.igniterealtime.openfire.plugin.blacklistspam:type=LatencyHistogram";
+
+    /**
+     * The name under which the plugin's translations are looked up.
+     */
+    private static final String PLUGIN_NAME = "spamblacklist";
+
+    private BlacklistStatistics()
+    {
+    }
+
+    /**
+     * Registers all statistics.
+     *
+     * @param plugin The plugin of which the statistics are registered (cannot be null).
+     */
+    static void register( final BlacklistSpamPlugin plugin )
+    {
+        if ( plugin == null )
+        {
+            throw new IllegalArgumentException( "Argument 'plugin' cannot be null." );
+        }
+
+        final StanzaBlocker stanzaBlocker = plugin.getStanzaBlocker();
+        final StatisticsManager statisticsManager = StatisticsManager.getInstance();
+        statisticsManager.addStatistic( STANZAS_CHECKED_KEY, new CountStatistic( STANZAS_CHECKED_KEY, stanzaBlocker::getCheckedCount ) );
+        statisticsManager.addStatistic( STANZAS_REJECTED_KEY, new CountStatistic( STANZAS_REJECTED_KEY, stanzaBlocker::getRejectedCount ) );
+        statisticsManager.addStatistic( LOOKUP_LATENCY_KEY, new LatencyStatistic( stanzaBlocker ) );
+        statisticsManager.addStatistic( REFRESH_DURATION_KEY, new i18nStatistic( REFRESH_DURATION_KEY, PLUGIN_NAME, Statistic.Type.amount )
+        {
+            @Override
+            public double sample()
+            {
+                final Duration duration = plugin.getLastRefreshDuration();
+                return duration == null ? 0 : duration.toMillis();
+            }
+
+            @Override
+            public boolean isPartialSample()
+            {
+                return false;
+            }
+        } );
+
+        try
+        {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName( LATENCY_HISTOGRAM_OBJECT_NAME );
+            if ( mBeanServer.isRegistered( name ) )
+            {
+                // Left behind by an earlier instance of this plugin.
+                mBeanServer.unregisterMBean( name );
+            }
+            mBeanServer.registerMBean( stanzaBlocker.getLatencyHistogram(), name );
+        }
+        catch ( JMException e )
+        {
+            Log.warn( "Unable to register the latency histogram with JMX.", e );
+        }
+    }
+
+    /**
+     * Removes all statistics that were registered by {@link #register(BlacklistSpamPlugin)}.
+     */
+    static void unregister()
+    {
+        final StatisticsManager statisticsManager = StatisticsManager.getInstance();
+        statisticsManager.removeStatistic( STANZAS_CHECKED_KEY );
+        statisticsManager.removeStatistic( STANZAS_REJECTED_KEY );
+        statisticsManager.removeStatistic( LOOKUP_LATENCY_KEY );
+        statisticsManager.removeStatistic( REFRESH_DURATION_KEY );
+
+        try
+        {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName( LATENCY_HISTOGRAM_OBJECT_NAME );
+            if ( mBeanServer.isRegistered( name ) )
+            {
+                mBeanServer.unregisterMBean( name );
+            }
+        }
+        catch ( JMException e )
+        {
+            Log.warn( "Unable to unregister the latency histogram from JMX.", e );
+        }
+    }
+
+    /**
+     * A statistic that reports how much an ever-increasing counter increased since the previous sample.
+     */
+    private static final class CountStatistic extends i18nStatistic
+    {
+        private final LongSupplier counter;
+        private long previous;
+
+        CountStatistic( final String key, final LongSupplier counter )
+        {
+            super( key, PLUGIN_NAME, Statistic.Type.rate );
+            this.counter = counter;
+            this.previous = counter.getAsLong();
+        }
+
+        @Override
+        public synchronized double sample()
+        {
+            final long current = counter.getAsLong();
+            final long result = current - previous;
+            previous = current;
+            return result;
+        }
+
+        @Override
+        public boolean isPartialSample()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * A statistic that reports the average duration of a blacklist lookup (in microseconds) since the previous sample,
+     * based on the lookups that were timed.
+     */
+    private static final class LatencyStatistic extends i18nStatistic
+    {
+        private final StanzaBlocker stanzaBlocker;
+        private long previousCount;
+        private long previousNanos;
+
+        LatencyStatistic( final StanzaBlocker stanzaBlocker )
+        {
+            super( LOOKUP_LATENCY_KEY, PLUGIN_NAME, Statistic.Type.amount );
+            this.stanzaBlocker = stanzaBlocker;
+            this.previousCount = stanzaBlocker.getLookupSamples();
+            this.previousNanos = stanzaBlocker.getLookupNanos();
+        }
+
+        @Override
+        public synchronized double sample()
+        {
+            final long count = stanzaBlocker.getLookupSamples();
+            final long nanos = stanzaBlocker.getLookupNanos();
+            final long deltaCount = count - previousCount;
+            final long deltaNanos = nanos - previousNanos;
+            previousCount = count;
+            previousNanos = nanos;
+            return deltaCount <= 0 ? 0 : deltaNanos / 1000.0 / deltaCount;
+        }
+
+        @Override
+        public boolean isPartialSample()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the stanzas that are blocked, per entry of the blacklist that their sender matched, since a blacklist was
+ * installed.
+ * <p>
+ * Counters are {@link LongAdder} instances, which can be incremented concurrently by many threads without locking.
+ * Reading the counters is comparatively expensive, but only happens when statistics are requested.
+ */
+public class BlockCounters
+{
+    /**
+     * The maximum amount of entries that are counted individually. Stanzas that match additional entries are counted
+     * together, which bounds the memory used when senders match many different entries of a large blacklist.
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    private final Instant since = Instant.now();
+
+    private final Map<String, LongAdder> byEntry = new ConcurrentHashMap<>();
+
+    private final LongAdder others = new LongAdder();
+
+    /**
+     * Counts a blocked stanza.
+     *
+     * @param entry The entry of the blacklist that the sender of the stanza matched (cannot be null).
+     */
+    public void increment( final String entry )
+    {
+        LongAdder counter = byEntry.get( entry );
+        if ( counter == null )
+        {
+            counter = byEntry.size() < MAX_ENTRIES ? byEntry.computeIfAbsent( entry, e -> new LongAdder() ) : others;
+        }
+        counter.increment();
+    }
+
+    /**
+     * Returns the moment from which stanzas are counted: when the blacklist that is in use was installed.
+     *
+     * @return A moment in time.
+     */
+    public Instant getSince()
+    {
+        return since;
+    }
+
+    /**
+     * Returns the total amount of stanzas that were blocked.
+     *
+     * @return an amount of stanzas.
+     */
+    public long getTotal()
+    {
+        long total = others.sum();
+        for ( final LongAdder counter : byEntry.values() )
+        {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the amount of stanzas that were blocked, that matched entries that are not counted individually.
+     *
+     * @return an amount of stanzas.
+     */
+    public long getOthers()
+    {
+        return others.sum();
+    }
+
+    /**
+     * Returns the average amount of stanzas that were blocked per minute.
+     *
+     * @return an amount of stanzas per minute.
+     */
+    public double getRatePerMinute()
+    {
+        return ratePerMinute( getTotal() );
+    }
+
+    /**
+     * Returns the entries that blocked the most stanzas, in descending order of that amount.
+     *
+     * @param limit The maximum amount of entries to return.
+     * @return The counts of the entries.
+     */
+    public List<EntryCount> getTopOffenders( final int limit )
+    {
+        final List<EntryCount> result = new ArrayList<>( byEntry.size() );
+        for ( final Map.Entry<String, LongAdder> entry : byEntry.entrySet() )
+        {
+            result.add( new EntryCount( entry.getKey(), entry.getValue().sum() ) );
+        }
+        result.sort( Comparator.comparingLong( EntryCount::getCount ).reversed().thenComparing( EntryCount::getEntry ) );
+        return result.size() > limit ? new ArrayList<>( result.subList( 0, limit ) ) : result;
+    }
+
+    private double ratePerMinute( final long count )
+    {
+        final long millis = Math.max( 1, Duration.between( since, Instant.now() ).toMillis() );
+        return count * 60_000.0 / millis;
+    }
+
+    /**
+     * The amount of stanzas that were blocked by one entry.
+     */
+    public final class EntryCount
+    {
+        private final String entry;
+        private final long count;
+
+        EntryCount( final String entry, final long count )
+        {
+            this.entry = entry;
+            this.count = count;
+        }
+
+        public String getEntry()
+        {
+            return entry;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Returns the average amount of stanzas that were blocked by this entry per minute.
+         *
+         * @return an amount of stanzas per minute.
+         */
+        public double getRatePerMinute()
+        {
+            return ratePerMinute( count );
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes blocked stanzas to daily files on disk, from a background thread.
+ * <p>
+ * Stanzas are queued in a bounded buffer, from which they are written in batches to a file that is kept open until
+ * the day changes. When the buffer is full, stanzas are dropped (and counted) rather than that the thread that offers
+ * them is made to wait.
+ * <p>
+ * The background thread is started when the first stanza is offered.
+ */
+public class BlockedStanzaWriter
+{
+    private static final Logger Log = LoggerFactory.getLogger( BlockedStanzaWriter.class );
+
+    /**
+     * The maximum amount of blocked stanzas that can be queued for being written to disk.
+     */
+    public static final SystemProperty<Integer> BLOCKEDLOG_QUEUE_CAPACITY = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("blacklistspam.blockedlog.queue.capacity")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(10000)
+        .setMinValue(1)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum amount of stanzas that are written to disk in one operation.
+     */
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>( BLOCKEDLOG_QUEUE_CAPACITY.getValue() );
+
+    private final LongAdder dropped = new LongAdder();
+
+    private Thread thread;
+
+    private volatile boolean running;
+
+    private volatile boolean shutdown;
+
+    /**
+     * Queues a stanza to be written to disk. This method does not block. When the queue is full, the stanza is dropped.
+     *
+     * @param stanza The stanza to be stored (cannot be null).
+     * @return true if the stanza was queued, false if it was dropped.
+     */
+    public boolean offer( final Packet stanza )
+    {
+        if ( !running )
+        {
+            start();
+        }
+
+        if ( queue.offer( new Record( System.currentTimeMillis(), stanza ) ) )
+        {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Returns the amount of stanzas that were dropped because the queue was full, since this instance was created.
+     *
+     * @return an amount of stanzas.
+     */
+    public long getDroppedCount()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * Stops the background thread, after it has written all stanzas that were queued.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+        if ( thread != null )
+        {
+            // Not interrupted, as that would close the file channel that the thread might be writing to.
+            try
+            {
+                thread.join( TimeUnit.SECONDS.toMillis( 5 ) );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        running = false;
+    }
+
+    private synchronized void start()
+    {
+        if ( running || shutdown )
+        {
+            return;
+        }
+        thread = new Thread( this::run, "blacklistspam-blockedlog-writer" );
+        thread.setDaemon( true );
+        thread.start();
+        running = true;
+    }
+
+    private void run()
+    {
+        final Path logDir = JiveGlobals.getHomePath().resolve("blacklist").resolve("blocked");
+        final ZoneId zone = ZoneId.systemDefault();
+        final DateTimeFormatter timestampFormatter = DateTimeFormatter.ISO_INSTANT.withZone( zone );
+        final List<Record> batch = new ArrayList<>( MAX_BATCH_SIZE );
+        final StringBuilder data = new StringBuilder();
+
+        FileChannel channel = null;
+        LocalDate channelDate = null;
+        long droppedReported = 0;
+        try
+        {
+            while ( !shutdown || !queue.isEmpty() )
+            {
+                try
+                {
+                    final Record first = shutdown ? queue.poll() : queue.poll( 1, TimeUnit.SECONDS );
+                    if ( first == null )
+                    {
+                        continue;
+                    }
+                    batch.add( first );
+                }
+                catch ( InterruptedException e )
+                {
+                    Log.debug( "Interrupted while waiting for blocked stanzas to store. Stopping.", e );
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                queue.drainTo( batch, MAX_BATCH_SIZE - 1 );
+
+                for ( final Record record : batch )
+                {
+                    final Instant timestamp = Instant.ofEpochMilli( record.timestamp );
+                    final LocalDate date = LocalDate.ofInstant( timestamp, zone );
+                    if ( !date.equals( channelDate ) )
+                    {
+                        write( channel, data );
+                        close( channel );
+                        channel = null;
+                        channelDate = date;
+                        final String fileName = DateTimeFormatter.BASIC_ISO_DATE.format( date ).concat( ".txt" );
+                        try
+                        {
+                            Files.createDirectories( logDir );
+                            channel = FileChannel.open( logDir.resolve( fileName ), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+                        }
+                        catch ( final Exception e )
+                        {
+                            Log.warn( "An exception occurred while attempting to open file to store blocked stanzas to.", e );
+                        }
+                    }
+                    data.append( timestampFormatter.format( timestamp ) ).append( " from [" ).append( record.stanza.getFrom() ).append( "]: " ).append( record.stanza.toXML() ).append( System.lineSeparator() );
+                }
+                batch.clear();
+                write( channel, data );
+
+                final long droppedTotal = dropped.sum();
+                if ( droppedTotal > droppedReported )
+                {
+                    Log.warn( "Unable to keep up with storing blocked stanzas to file: {} stanzas were not stored (total since start: {}).", droppedTotal - droppedReported, droppedTotal );
+                    droppedReported = droppedTotal;
+                }
+            }
+        }
+        finally
+        {
+            close( channel );
+        }
+    }
+
+    private static void write( final FileChannel channel, final StringBuilder data )
+    {
+        if ( data.length() == 0 )
+        {
+            return;
+        }
+        try
+        {
+            if ( channel != null )
+            {
+                final ByteBuffer buffer = StandardCharsets.UTF_8.encode( data.toString() );
+                while ( buffer.hasRemaining() )
+                {
+                    channel.write( buffer );
+                }
+            }
+        }
+        catch ( final Exception e )
+        {
+            Log.warn( "An exception occurred while attempting to store blocked stanzas to file.", e );
+        }
+        finally
+        {
+            data.setLength( 0 );
+        }
+    }
+
+    private static void close( final FileChannel channel )
+    {
+        if ( channel == null )
+        {
+            return;
+        }
+        try
+        {
+            channel.close();
+        }
+        catch ( final IOException e )
+        {
+            Log.debug( "An exception occurred while closing file that stores blocked stanzas.", e );
+        }
+    }
+
+    /**
+     * A stanza that is queued to be written, with the moment it was blocked.
+     */
+    private static final class Record
+    {
+        private final long timestamp;
+        private final Packet stanza;
+
+        Record( final long timestamp, final Packet stanza )
+        {
+            this.timestamp = timestamp;
+            this.stanza = stanza;
+        }
+    }
+}
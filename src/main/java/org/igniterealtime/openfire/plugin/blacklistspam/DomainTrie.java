@@ -0,0 +1,895 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A trie of blacklist entries, keyed by the labels of their domain-part in reverse order (the top-level domain label
+ * is the first key, followed by the second-level domain label, etcetera).
+ * <p>
+ * Domains that share a suffix share the nodes that represent that suffix, which keeps the memory footprint of large
+ * collections small. A node can mark its domain as being on the blacklist, either by itself or including all of its
+ * subdomains (a 'wildcard' entry, as in <tt>*.example.org</tt>). Bare and full JID entries are kept in the node of
+ * their domain-part.
+ * <p>
+ * Lookups walk the labels of a domain in place, and do not allocate.
+ * <p>
+ * Every entry records the sources that list it, as a bit mask in which each bit identifies one source. Tries that
+ * are {@link #merge(List) merged} from the tries of multiple sources use one bit per source. Entries that are added
+ * directly are attributed to {@link #DEFAULT_SOURCES the first source}.
+ * <p>
+ * A trie can be {@link #fork() forked} into a new trie that initially shares all of its nodes. Changes to either trie
+ * copy only the nodes on the path to the changed entry, which makes the cost of deriving a new version of a trie
+ * proportional to the amount of changes, rather than to the amount of entries.
+ * <p>
+ * Instances are not thread-safe while being populated. After population, instances can safely be shared by multiple
+ * threads, as long as they are published safely (eg: by assigning them to a final field).
+ */
+final class DomainTrie implements EnumerableBlacklistIndex
+{
+    /**
+     * The maximum amount of sources that can be merged into one trie.
+     */
+    static final int MAX_SOURCES = Integer.SIZE;
+
+    /**
+     * The sources to which entries that are added directly are attributed.
+     */
+    static final int DEFAULT_SOURCES = 1;
+
+    /**
+     * The token that identifies the nodes that this trie can modify in place. Nodes that are owned by another token
+     * are shared with another trie, and are copied before being modified.
+     */
+    private Object edit = new Object();
+
+    private Node root;
+
+    private int size;
+
+    DomainTrie()
+    {
+        this.root = new Node( edit );
+    }
+
+    private DomainTrie( final Node root, final int size )
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns a new trie with the same entries as this trie. The new trie initially shares all of its nodes with this
+     * trie: only nodes that are modified afterwards (in either trie) are copied.
+     *
+     * @return A new trie.
+     */
+    DomainTrie fork()
+    {
+        // Neither trie may modify the shared nodes in place from now on.
+        edit = new Object();
+        return new DomainTrie( root, size );
+    }
+
+    /**
+     * Adds an entry to the trie.
+     *
+     * @param node The node-part of the entry (can be null).
+     * @param domain The domain-part of the entry (cannot be null).
+     * @param resource The resource-part of the entry (can be null).
+     * @return true if the trie did not already contain the entry, otherwise false.
+     */
+    boolean add( final String node, final String domain, final String resource )
+    {
+        final Node existing = find( domain );
+        if ( existing != null && existing.has( node, resource ) )
+        {
+            return false;
+        }
+        editablePathTo( domain, null ).add( node, resource, DEFAULT_SOURCES );
+        size++;
+        return true;
+    }
+
+    /**
+     * Adds an entry to the trie that matches every subdomain of the provided domain.
+     *
+     * @param domain The parent domain of all domains that are to be matched (cannot be null).
+     * @return true if the trie did not already contain the entry, otherwise false.
+     */
+    boolean addWildcard( final String domain )
+    {
+        final Node existing = find( domain );
+        if ( existing != null && existing.wildcardSources != 0 )
+        {
+            return false;
+        }
+        editablePathTo( domain, null ).wildcardSources = DEFAULT_SOURCES;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an entry from the trie.
+     *
+     * @param node The node-part of the entry (can be null).
+     * @param domain The domain-part of the entry (cannot be null).
+     * @param resource The resource-part of the entry (can be null).
+     * @return true if the trie contained the entry, otherwise false.
+     */
+    boolean remove( final String node, final String domain, final String resource )
+    {
+        final Node existing = find( domain );
+        if ( existing == null || !existing.has( node, resource ) )
+        {
+            return false;
+        }
+        final List<Node> path = new ArrayList<>();
+        editablePathTo( domain, path ).remove( node, resource );
+        prune( domain, path );
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes an entry that matches every subdomain of the provided domain from the trie.
+     *
+     * @param domain The parent domain of all domains that were to be matched (cannot be null).
+     * @return true if the trie contained the entry, otherwise false.
+     */
+    boolean removeWildcard( final String domain )
+    {
+        final Node existing = find( domain );
+        if ( existing == null || existing.wildcardSources == 0 )
+        {
+            return false;
+        }
+        final List<Node> path = new ArrayList<>();
+        editablePathTo( domain, path ).wildcardSources = 0;
+        prune( domain, path );
+        size--;
+        return true;
+    }
+
+    /**
+     * Verifies if the trie contains an entry that matches the provided JID parts. A match is said to occur when the
+     * trie contains the full JID, the bare JID, the domain, or a wildcard entry for any of the parent domains of the
+     * domain.
+     *
+     * @param node The node-part of the JID to check (can be null).
+     * @param domain The domain-part of the JID to check (cannot be null).
+     * @param resource The resource-part of the JID to check (can be null).
+     * @return true if the trie contains a matching entry, otherwise false.
+     */
+    @Override
+    public boolean contains( final String node, final String domain, final String resource )
+    {
+        Node current = root;
+        int end = domain.length();
+        while ( true )
+        {
+            final int start = domain.lastIndexOf( '.', end - 1 ) + 1;
+            current = current.child( domain, start, end );
+            if ( current == null )
+            {
+                return false;
+            }
+            if ( start == 0 )
+            {
+                return current.matches( node, resource );
+            }
+            if ( current.wildcardSources != 0 )
+            {
+                return true;
+            }
+            end = start - 1;
+        }
+    }
+
+    @Override
+    public String getMatchingEntry( final String node, final String domain, final String resource )
+    {
+        Node current = root;
+        int end = domain.length();
+        while ( true )
+        {
+            final int start = domain.lastIndexOf( '.', end - 1 ) + 1;
+            current = current.child( domain, start, end );
+            if ( current == null )
+            {
+                return null;
+            }
+            if ( start == 0 )
+            {
+                return current.matchingEntry( node, domain, resource );
+            }
+            if ( current.wildcardSources != 0 )
+            {
+                return BlacklistFactory.WILDCARD_PREFIX + domain.substring( start );
+            }
+            end = start - 1;
+        }
+    }
+
+    /**
+     * Determines which sources list an entry that matches the provided JID parts, in the same way as
+     * {@link #contains(String, String, String)} determines if there is such an entry at all.
+     *
+     * @param node The node-part of the JID to check (can be null).
+     * @param domain The domain-part of the JID to check (cannot be null).
+     * @param resource The resource-part of the JID to check (can be null).
+     * @return A bit mask of sources, which is zero if the trie does not contain a matching entry.
+     */
+    int getSources( final String node, final String domain, final String resource )
+    {
+        int result = 0;
+        Node current = root;
+        int end = domain.length();
+        while ( true )
+        {
+            final int start = domain.lastIndexOf( '.', end - 1 ) + 1;
+            current = current.child( domain, start, end );
+            if ( current == null )
+            {
+                return result;
+            }
+            if ( start == 0 )
+            {
+                return result | current.sources( node, resource );
+            }
+            result |= current.wildcardSources;
+            end = start - 1;
+        }
+    }
+
+    /**
+     * Merges the entries of multiple tries into a new trie, in which every entry is attributed to the tries that
+     * contain it: the trie at index i of the list is represented by bit i of the mask of sources. The new trie does not
+     * duplicate the labels, node-parts and resource-parts of the entries, but refers to the instances in the tries that
+     * it is merged from.
+     *
+     * @param sources The tries to merge (cannot be null, at most {@link #MAX_SOURCES}).
+     * @return A new trie.
+     */
+    static DomainTrie merge( final List<DomainTrie> sources )
+    {
+        if ( sources.size() > MAX_SOURCES )
+        {
+            throw new IllegalArgumentException( "Cannot merge more than " + MAX_SOURCES + " tries." );
+        }
+        final DomainTrie result = new DomainTrie();
+        for ( int i = 0; i < sources.size(); i++ )
+        {
+            result.size += result.root.merge( result.edit, sources.get( i ).root, 1 << i );
+        }
+        return result;
+    }
+
+    @Override
+    public Blacklist.DomainVerdict getDomainVerdict( final String domain )
+    {
+        Node current = root;
+        int end = domain.length();
+        while ( true )
+        {
+            final int start = domain.lastIndexOf( '.', end - 1 ) + 1;
+            current = current.child( domain, start, end );
+            if ( current == null )
+            {
+                return Blacklist.DomainVerdict.CLEAR;
+            }
+            if ( start == 0 )
+            {
+                if ( current.domainSources != 0 )
+                {
+                    return Blacklist.DomainVerdict.BLOCKED;
+                }
+                return current.nodes == null && current.resourcesByNode == null ? Blacklist.DomainVerdict.CLEAR : Blacklist.DomainVerdict.PARTIAL;
+            }
+            if ( current.wildcardSources != 0 )
+            {
+                return Blacklist.DomainVerdict.BLOCKED;
+            }
+            end = start - 1;
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public void forEachEntry( final Consumer<String> consumer )
+    {
+        if ( root.children != null )
+        {
+            root.children.forEach( ( label, child ) -> child.forEachEntry( label, consumer ) );
+        }
+    }
+
+    /**
+     * Writes the structure of the trie, including the sources of every entry, in a form that can be read by
+     * {@link #readFrom(DataInput, boolean)}.
+     *
+     * @param out The destination of the data.
+     * @throws IOException On any problem writing the data.
+     */
+    void writeTo( final DataOutput out ) throws IOException
+    {
+        out.writeInt( size );
+        root.writeTo( out );
+    }
+
+    /**
+     * Reads the structure of a trie that was written by {@link #writeTo(DataOutput)}. Entries are not validated.
+     *
+     * @param in The source of the data.
+     * @param withSources false if the data was written before the sources of entries were recorded, in which case all entries are attributed to {@link #DEFAULT_SOURCES}.
+     * @return A trie.
+     * @throws IOException On any problem reading the data.
+     */
+    static DomainTrie readFrom( final DataInput in, final boolean withSources ) throws IOException
+    {
+        final DomainTrie result = new DomainTrie();
+        result.size = in.readInt();
+        result.root.readFrom( in, withSources );
+        return result;
+    }
+
+    /**
+     * Returns the node for a domain, without modifying the trie.
+     *
+     * @return A node, or null if the trie does not have a node for the domain.
+     */
+    private Node find( final String domain )
+    {
+        Node current = root;
+        int end = domain.length();
+        while ( current != null )
+        {
+            final int start = domain.lastIndexOf( '.', end - 1 ) + 1;
+            current = current.child( domain, start, end );
+            if ( start == 0 )
+            {
+                return current;
+            }
+            end = start - 1;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the node for a domain, that can be modified in place. Nodes on the path to it that are shared with
+     * another trie are copied, and missing nodes are created.
+     *
+     * @param path When not null, receives all nodes on the path, starting with the root.
+     */
+    private Node editablePathTo( final String domain, final List<Node> path )
+    {
+        root = root.editable( edit );
+        Node current = root;
+        int end = domain.length();
+        while ( true )
+        {
+            if ( path != null )
+            {
+                path.add( current );
+            }
+            final int start = domain.lastIndexOf( '.', end - 1 ) + 1;
+            current = current.editableChild( edit, domain.substring( start, end ) );
+            if ( start == 0 )
+            {
+                if ( path != null )
+                {
+                    path.add( current );
+                }
+                return current;
+            }
+            end = start - 1;
+        }
+    }
+
+    /**
+     * Removes nodes that no longer hold any entry or child from the end of a path that was obtained from
+     * {@link #editablePathTo(String, List)}.
+     */
+    private void prune( final String domain, final List<Node> path )
+    {
+        // The node at index i of the path is the child of the node at index i-1 for the i-th label, counted from the end.
+        final List<String> labels = new ArrayList<>();
+        int end = domain.length();
+        while ( end >= 0 )
+        {
+            final int start = domain.lastIndexOf( '.', end - 1 ) + 1;
+            labels.add( domain.substring( start, end ) );
+            end = start - 1;
+        }
+        for ( int i = path.size() - 1; i > 0 && path.get( i ).isEmpty(); i-- )
+        {
+            path.get( i - 1 ).removeChild( edit, labels.get( i - 1 ) );
+        }
+    }
+
+    /**
+     * Computes the same hash as {@link String#hashCode()} would, for the characters in a region of a String.
+     */
+    static int hash( final String value, final int start, final int end )
+    {
+        int h = 0;
+        for ( int i = start; i < end; i++ )
+        {
+            h = 31 * h + value.charAt( i );
+        }
+        return h;
+    }
+
+    /**
+     * A node in the trie, representing one domain (the concatenation of the labels on the path from the root to this
+     * node). Child nodes are kept in a persistent map, keyed by label.
+     */
+    private static final class Node
+    {
+        /**
+         * The token of the trie that can modify this node in place.
+         */
+        private final Object edit;
+
+        private LabelMap<Node> children;
+
+        /**
+         * The sources that list the domain itself (zero if the domain itself is not on the blacklist).
+         */
+        private int domainSources;
+
+        /**
+         * The sources that list all subdomains of the domain (zero if these are not on the blacklist).
+         */
+        private int wildcardSources;
+
+        /**
+         * Node-parts of bare JIDs that are on the blacklist, mapped to the sources that list them.
+         */
+        private Map<String, Integer> nodes;
+
+        /**
+         * Resource-parts of full JIDs that are on the blacklist, indexed by their node-part (which can be null), mapped
+         * to the sources that list them.
+         */
+        private Map<String, Map<String, Integer>> resourcesByNode;
+
+        /**
+         * Set when {@link #nodes} and {@link #resourcesByNode} are shared with a node of another trie, and need to be
+         * copied before being modified.
+         */
+        private boolean entriesShared;
+
+        Node( final Object edit )
+        {
+            this.edit = edit;
+        }
+
+        /**
+         * Returns this node if it is owned by the provided token, otherwise a copy of it that is.
+         */
+        Node editable( final Object edit )
+        {
+            if ( this.edit == edit )
+            {
+                return this;
+            }
+            final Node copy = new Node( edit );
+            copy.children = children;
+            copy.domainSources = domainSources;
+            copy.wildcardSources = wildcardSources;
+            copy.nodes = nodes;
+            copy.resourcesByNode = resourcesByNode;
+            copy.entriesShared = nodes != null || resourcesByNode != null;
+            return copy;
+        }
+
+        Node child( final String domain, final int start, final int end )
+        {
+            return children == null ? null : children.get( domain, start, end, LabelMap.hash( domain, start, end ) );
+        }
+
+        /**
+         * Returns the child node for a label, that is owned by the provided token. A child that is shared with another
+         * trie is replaced by a copy. A missing child is created. This node must be owned by the provided token.
+         */
+        Node editableChild( final Object edit, final String label )
+        {
+            final Node existing = child( label, 0, label.length() );
+            final Node result = existing == null ? new Node( edit ) : existing.editable( edit );
+            if ( result != existing )
+            {
+                children = children == null ? LabelMap.of( edit, label, result ) : children.put( edit, label, result );
+            }
+            return result;
+        }
+
+        /**
+         * Removes the child node for a label. This node must be owned by the provided token.
+         */
+        void removeChild( final Object edit, final String label )
+        {
+            if ( children != null )
+            {
+                children = children.remove( edit, label );
+            }
+        }
+
+        boolean isEmpty()
+        {
+            return domainSources == 0 && wildcardSources == 0 && nodes == null && resourcesByNode == null && children == null;
+        }
+
+        void forEachEntry( final String domain, final Consumer<String> consumer )
+        {
+            if ( domainSources != 0 )
+            {
+                consumer.accept( domain );
+            }
+            if ( wildcardSources != 0 )
+            {
+                consumer.accept( BlacklistFactory.WILDCARD_PREFIX + domain );
+            }
+            if ( nodes != null )
+            {
+                for ( final String node : nodes.keySet() )
+                {
+                    consumer.accept( node + '@' + domain );
+                }
+            }
+            if ( resourcesByNode != null )
+            {
+                for ( final Map.Entry<String, Map<String, Integer>> entry : resourcesByNode.entrySet() )
+                {
+                    final String bare = entry.getKey() == null ? domain : entry.getKey() + '@' + domain;
+                    for ( final String resource : entry.getValue().keySet() )
+                    {
+                        consumer.accept( bare + '/' + resource );
+                    }
+                }
+            }
+            if ( children != null )
+            {
+                children.forEach( ( label, child ) -> child.forEachEntry( label + '.' + domain, consumer ) );
+            }
+        }
+
+        void writeTo( final DataOutput out ) throws IOException
+        {
+            out.writeInt( domainSources );
+            out.writeInt( wildcardSources );
+
+            out.writeInt( nodes == null ? 0 : nodes.size() );
+            if ( nodes != null )
+            {
+                for ( final Map.Entry<String, Integer> entry : nodes.entrySet() )
+                {
+                    out.writeUTF( entry.getKey() );
+                    out.writeInt( entry.getValue() );
+                }
+            }
+
+            out.writeInt( resourcesByNode == null ? 0 : resourcesByNode.size() );
+            if ( resourcesByNode != null )
+            {
+                for ( final Map.Entry<String, Map<String, Integer>> entry : resourcesByNode.entrySet() )
+                {
+                    out.writeBoolean( entry.getKey() != null );
+                    if ( entry.getKey() != null )
+                    {
+                        out.writeUTF( entry.getKey() );
+                    }
+                    out.writeInt( entry.getValue().size() );
+                    for ( final Map.Entry<String, Integer> resource : entry.getValue().entrySet() )
+                    {
+                        out.writeUTF( resource.getKey() );
+                        out.writeInt( resource.getValue() );
+                    }
+                }
+            }
+
+            final int[] childCount = new int[ 1 ];
+            if ( children != null )
+            {
+                children.forEach( ( label, child ) -> childCount[ 0 ]++ );
+            }
+            out.writeInt( childCount[ 0 ] );
+            if ( children != null )
+            {
+                children.<IOException>forEach( ( label, child ) -> {
+                    out.writeUTF( label );
+                    child.writeTo( out );
+                } );
+            }
+        }
+
+        void readFrom( final DataInput in, final boolean withSources ) throws IOException
+        {
+            domainSources = withSources ? in.readInt() : (in.readBoolean() ? DEFAULT_SOURCES : 0);
+            wildcardSources = withSources ? in.readInt() : (in.readBoolean() ? DEFAULT_SOURCES : 0);
+
+            final int nodeCount = in.readInt();
+            for ( int i = 0; i < nodeCount; i++ )
+            {
+                final String node = in.readUTF();
+                add( node, null, readSources( in, withSources ) );
+            }
+
+            final int resourceNodeCount = in.readInt();
+            for ( int i = 0; i < resourceNodeCount; i++ )
+            {
+                final String node = in.readBoolean() ? in.readUTF() : null;
+                final int resourceCount = in.readInt();
+                for ( int j = 0; j < resourceCount; j++ )
+                {
+                    final String resource = in.readUTF();
+                    add( node, resource, readSources( in, withSources ) );
+                }
+            }
+
+            final int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                editableChild( edit, in.readUTF() ).readFrom( in, withSources );
+            }
+        }
+
+        private static int readSources( final DataInput in, final boolean withSources ) throws IOException
+        {
+            return withSources ? in.readInt() : DEFAULT_SOURCES;
+        }
+
+        /**
+         * Adds all entries of a node of another trie to this node, attributing them to the provided sources. This node
+         * must be owned by the provided token.
+         *
+         * @return The amount of entries that this node, or its descendants, did not already contain.
+         */
+        int merge( final Object edit, final Node other, final int sources )
+        {
+            int added = 0;
+            if ( other.domainSources != 0 )
+            {
+                added += domainSources == 0 ? 1 : 0;
+                domainSources |= sources;
+            }
+            if ( other.wildcardSources != 0 )
+            {
+                added += wildcardSources == 0 ? 1 : 0;
+                wildcardSources |= sources;
+            }
+            if ( other.nodes != null )
+            {
+                for ( final String node : other.nodes.keySet() )
+                {
+                    added += add( node, null, sources ) ? 1 : 0;
+                }
+            }
+            if ( other.resourcesByNode != null )
+            {
+                for ( final Map.Entry<String, Map<String, Integer>> entry : other.resourcesByNode.entrySet() )
+                {
+                    for ( final String resource : entry.getValue().keySet() )
+                    {
+                        added += add( entry.getKey(), resource, sources ) ? 1 : 0;
+                    }
+                }
+            }
+            if ( other.children != null )
+            {
+                final int[] addedByChildren = new int[ 1 ];
+                other.children.forEach( ( label, child ) -> addedByChildren[ 0 ] += editableChild( edit, label ).merge( edit, child, sources ) );
+                added += addedByChildren[ 0 ];
+            }
+            return added;
+        }
+
+        boolean has( final String node, final String resource )
+        {
+            if ( resource != null )
+            {
+                final Map<String, Integer> resources = resourcesByNode == null ? null : resourcesByNode.get( node );
+                return resources != null && resources.containsKey( resource );
+            }
+            if ( node != null )
+            {
+                return nodes != null && nodes.containsKey( node );
+            }
+            return domainSources != 0;
+        }
+
+        /**
+         * Adds an entry to this node, or adds sources to an entry that this node already contains.
+         *
+         * @return true if this node did not already contain the entry, otherwise false.
+         */
+        boolean add( final String node, final String resource, final int sources )
+        {
+            unshareEntries();
+            if ( resource != null )
+            {
+                if ( resourcesByNode == null )
+                {
+                    resourcesByNode = new HashMap<>();
+                }
+                return resourcesByNode.computeIfAbsent( node, n -> new HashMap<>() ).merge( resource, sources, ( a, b ) -> a | b ) == sources;
+            }
+            else if ( node != null )
+            {
+                if ( nodes == null )
+                {
+                    nodes = new HashMap<>();
+                }
+                return nodes.merge( node, sources, ( a, b ) -> a | b ) == sources;
+            }
+            else
+            {
+                final boolean added = domainSources == 0;
+                domainSources |= sources;
+                return added;
+            }
+        }
+
+        void remove( final String node, final String resource )
+        {
+            unshareEntries();
+            if ( resource != null )
+            {
+                final Map<String, Integer> resources = resourcesByNode.get( node );
+                resources.remove( resource );
+                if ( resources.isEmpty() )
+                {
+                    resourcesByNode.remove( node );
+                    if ( resourcesByNode.isEmpty() )
+                    {
+                        resourcesByNode = null;
+                    }
+                }
+            }
+            else if ( node != null )
+            {
+                nodes.remove( node );
+                if ( nodes.isEmpty() )
+                {
+                    nodes = null;
+                }
+            }
+            else
+            {
+                domainSources = 0;
+            }
+        }
+
+        private void unshareEntries()
+        {
+            if ( !entriesShared )
+            {
+                return;
+            }
+            if ( nodes != null )
+            {
+                nodes = new HashMap<>( nodes );
+            }
+            if ( resourcesByNode != null )
+            {
+                final Map<String, Map<String, Integer>> copy = new HashMap<>();
+                for ( final Map.Entry<String, Map<String, Integer>> entry : resourcesByNode.entrySet() )
+                {
+                    copy.put( entry.getKey(), new HashMap<>( entry.getValue() ) );
+                }
+                resourcesByNode = copy;
+            }
+            entriesShared = false;
+        }
+
+        boolean matches( final String node, final String resource )
+        {
+            if ( domainSources != 0 )
+            {
+                return true;
+            }
+
+            if ( node != null && nodes != null && nodes.containsKey( node ) )
+            {
+                return true;
+            }
+
+            if ( resource != null && resourcesByNode != null )
+            {
+                final Map<String, Integer> resources = resourcesByNode.get( node );
+                return resources != null && resources.containsKey( resource );
+            }
+
+            return false;
+        }
+
+        /**
+         * Returns the entry of this node that matches the provided node-part and resource-part, in the same order as
+         * {@link #matches(String, String)} checks them.
+         *
+         * @param domain The domain that this node represents.
+         * @return An entry in its textual representation, or null if this node does not contain a matching entry.
+         */
+        String matchingEntry( final String node, final String domain, final String resource )
+        {
+            if ( domainSources != 0 )
+            {
+                return domain;
+            }
+
+            if ( node != null && nodes != null && nodes.containsKey( node ) )
+            {
+                return node + '@' + domain;
+            }
+
+            if ( resource != null && resourcesByNode != null )
+            {
+                final Map<String, Integer> resources = resourcesByNode.get( node );
+                if ( resources != null && resources.containsKey( resource ) )
+                {
+                    return (node == null ? domain : node + '@' + domain) + '/' + resource;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Determines which sources list an entry of this node that matches the provided node-part and resource-part.
+         *
+         * @return A bit mask of sources, which is zero if this node does not contain a matching entry.
+         */
+        int sources( final String node, final String resource )
+        {
+            int result = domainSources;
+
+            if ( node != null && nodes != null )
+            {
+                final Integer sources = nodes.get( node );
+                if ( sources != null )
+                {
+                    result |= sources;
+                }
+            }
+
+            if ( resource != null && resourcesByNode != null )
+            {
+                final Map<String, Integer> resources = resourcesByNode.get( node );
+                final Integer sources = resources == null ? null : resources.get( resource );
+                if ( sources != null )
+                {
+                    result |= sources;
+                }
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Utility methods for indexes that look up blacklist entries by a hash of their textual representation (as it would
+ * occur in a block list).
+ * <p>
+ * To check a JID, such indexes need to look up every entry that could match it: the full JID, the bare JID, the domain
+ * and wildcard entries for each parent domain. The methods in this class compute the hashes of these keys, and compare
+ * them with stored entries, from the parts of the JID, without composing new Strings.
+ */
+final class EntryKey
+{
+    /**
+     * Denotes entries that consist of only a domain.
+     */
+    static final int DOMAIN = 1;
+
+    /**
+     * Denotes entries that are bare JIDs.
+     */
+    static final int BARE = 1 << 1;
+
+    /**
+     * Denotes entries that are full JIDs (including those without a node-part).
+     */
+    static final int FULL = 1 << 2;
+
+    /**
+     * Denotes entries that match all subdomains of a domain.
+     */
+    static final int WILDCARD = 1 << 3;
+
+    /**
+     * Denotes that none of the keys of a JID matched.
+     */
+    private static final int NO_MATCH = 0;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Looks up one possible key of a JID. A key is the concatenation of (in this order): <tt>*.</tt> if the key is a
+     * wildcard, the node followed by <tt>@</tt> if the node is not null, the domain starting at the character at index
+     * <tt>domainFrom</tt>, <tt>/</tt> followed by the resource if the resource is not null.
+     */
+    interface Probe
+    {
+        boolean probe( long hash, String node, String domain, int domainFrom, String resource, boolean wildcard );
+    }
+
+    private EntryKey()
+    {
+    }
+
+    /**
+     * Returns the kind of entry that is represented by its textual form.
+     *
+     * @param entry An entry, as it would occur in a block list.
+     * @return One of {@link #DOMAIN}, {@link #BARE}, {@link #FULL} or {@link #WILDCARD}.
+     */
+    static int kindOf( final String entry )
+    {
+        if ( entry.startsWith( BlacklistFactory.WILDCARD_PREFIX ) )
+        {
+            return WILDCARD;
+        }
+        final int slash = entry.indexOf( '/' );
+        if ( slash >= 0 )
+        {
+            return FULL;
+        }
+        return entry.indexOf( '@' ) >= 0 ? BARE : DOMAIN;
+    }
+
+    /**
+     * Probes all keys that could match the provided JID parts, until one matches.
+     *
+     * @param probe Performs the lookup for one key.
+     * @param kinds The kinds of entries that exist in the index (a bitmask). Keys for other kinds are not probed.
+     * @param node The node-part of the JID to check (can be null).
+     * @param domain The domain-part of the JID to check (cannot be null).
+     * @param resource The resource-part of the JID to check (can be null).
+     * @return true if any key matched, otherwise false.
+     */
+    static boolean anyMatch( final Probe probe, final int kinds, final String node, final String domain, final String resource )
+    {
+        return match( probe, kinds, node, domain, resource ) != NO_MATCH;
+    }
+
+    /**
+     * Probes all keys that could match the provided JID parts, in the same order as
+     * {@link #anyMatch(Probe, int, String, String, String)}, and returns the first key that matches.
+     *
+     * @param probe Performs the lookup for one key.
+     * @param kinds The kinds of entries that exist in the index (a bitmask). Keys for other kinds are not probed.
+     * @param node The node-part of the JID to check (can be null).
+     * @param domain The domain-part of the JID to check (cannot be null).
+     * @param resource The resource-part of the JID to check (can be null).
+     * @return The matching key in its textual form (as it would occur in a block list), or null if no key matched.
+     */
+    static String findMatch( final Probe probe, final int kinds, final String node, final String domain, final String resource )
+    {
+        final int match = match( probe, kinds, node, domain, resource );
+        switch ( match )
+        {
+            case NO_MATCH:
+                return null;
+            case DOMAIN:
+                return domain;
+            case BARE:
+                return node + '@' + domain;
+            case FULL:
+                return (node == null ? domain : node + '@' + domain) + '/' + resource;
+            default:
+                return BlacklistFactory.WILDCARD_PREFIX + domain.substring( -match );
+        }
+    }
+
+    /**
+     * Probes all keys that could match the provided JID parts, until one matches.
+     *
+     * @return {@link #NO_MATCH}, the kind of the key that matched, or for a wildcard key, the negated index in the
+     *         domain at which the parent domain of the key starts.
+     */
+    private static int match( final Probe probe, final int kinds, final String node, final String domain, final String resource )
+    {
+        if ( (kinds & DOMAIN) != 0 && probe.probe( hash( null, domain, 0, null, false ), null, domain, 0, null, false ) )
+        {
+            return DOMAIN;
+        }
+        if ( node != null && (kinds & BARE) != 0 && probe.probe( hash( node, domain, 0, null, false ), node, domain, 0, null, false ) )
+        {
+            return BARE;
+        }
+        if ( resource != null && (kinds & FULL) != 0 && probe.probe( hash( node, domain, 0, resource, false ), node, domain, 0, resource, false ) )
+        {
+            return FULL;
+        }
+        if ( (kinds & WILDCARD) != 0 )
+        {
+            for ( int dot = domain.indexOf( '.' ); dot >= 0; dot = domain.indexOf( '.', dot + 1 ) )
+            {
+                if ( probe.probe( hash( null, domain, dot + 1, null, true ), null, domain, dot + 1, null, true ) )
+                {
+                    return -(dot + 1);
+                }
+            }
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Computes the hash of an entry in its textual form.
+     *
+     * @param entry An entry, as it would occur in a block list.
+     * @return a 64-bit hash.
+     */
+    static long hash( final String entry )
+    {
+        return finish( update( FNV_OFFSET_BASIS, entry, 0, entry.length() ) );
+    }
+
+    /**
+     * Computes the hash of a key that is composed of parts of a JID, as described in {@link Probe}. The result is equal
+     * to the result of {@link #hash(String)} for the textual form of the same key.
+     */
+    static long hash( final String node, final String domain, final int domainFrom, final String resource, final boolean wildcard )
+    {
+        long h = FNV_OFFSET_BASIS;
+        if ( wildcard )
+        {
+            h = update( update( h, '*' ), '.' );
+        }
+        if ( node != null )
+        {
+            h = update( update( h, node, 0, node.length() ), '@' );
+        }
+        h = update( h, domain, domainFrom, domain.length() );
+        if ( resource != null )
+        {
+            h = update( update( h, '/' ), resource, 0, resource.length() );
+        }
+        return finish( h );
+    }
+
+    /**
+     * Verifies if the UTF-8 encoded bytes in a region of a buffer represent the key that is composed of parts of a JID,
+     * as described in {@link Probe}. The position of the buffer is not modified.
+     */
+    static boolean equalsUtf8( final ByteBuffer buffer, final int offset, final int length, final String node, final String domain, final int domainFrom, final String resource, final boolean wildcard )
+    {
+        final int end = offset + length;
+        int position = offset;
+        if ( wildcard )
+        {
+            position = compareUtf8( buffer, position, end, BlacklistFactory.WILDCARD_PREFIX, 0, BlacklistFactory.WILDCARD_PREFIX.length() );
+        }
+        if ( node != null && position >= 0 )
+        {
+            position = compareUtf8( buffer, position, end, node, 0, node.length() );
+            position = position >= 0 && position < end && buffer.get( position ) == '@' ? position + 1 : -1;
+        }
+        if ( position >= 0 )
+        {
+            position = compareUtf8( buffer, position, end, domain, domainFrom, domain.length() );
+        }
+        if ( resource != null && position >= 0 )
+        {
+            position = position < end && buffer.get( position ) == '/' ? position + 1 : -1;
+            if ( position >= 0 )
+            {
+                position = compareUtf8( buffer, position, end, resource, 0, resource.length() );
+            }
+        }
+        return position == end;
+    }
+
+    /**
+     * Compares the UTF-8 encoded bytes in a buffer, starting at a position, with a region of a String.
+     *
+     * @return the position in the buffer directly after the compared bytes, or -1 if the bytes do not match.
+     */
+    private static int compareUtf8( final ByteBuffer buffer, int position, final int end, final String value, final int from, final int to )
+    {
+        for ( int i = from; i < to; i++ )
+        {
+            int codePoint = value.charAt( i );
+            if ( Character.isHighSurrogate( (char) codePoint ) && i + 1 < to && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+            {
+                codePoint = Character.toCodePoint( (char) codePoint, value.charAt( ++i ) );
+            }
+
+            final int byteCount = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if ( position + byteCount > end )
+            {
+                return -1;
+            }
+            switch ( byteCount )
+            {
+                case 1:
+                    if ( buffer.get( position ) != (byte) codePoint ) return -1;
+                    break;
+                case 2:
+                    if ( buffer.get( position ) != (byte) (0xC0 | (codePoint >> 6))
+                        || buffer.get( position + 1 ) != (byte) (0x80 | (codePoint & 0x3F)) ) return -1;
+                    break;
+                case 3:
+                    if ( buffer.get( position ) != (byte) (0xE0 | (codePoint >> 12))
+                        || buffer.get( position + 1 ) != (byte) (0x80 | ((codePoint >> 6) & 0x3F))
+                        || buffer.get( position + 2 ) != (byte) (0x80 | (codePoint & 0x3F)) ) return -1;
+                    break;
+                default:
+                    if ( buffer.get( position ) != (byte) (0xF0 | (codePoint >> 18))
+                        || buffer.get( position + 1 ) != (byte) (0x80 | ((codePoint >> 12) & 0x3F))
+                        || buffer.get( position + 2 ) != (byte) (0x80 | ((codePoint >> 6) & 0x3F))
+                        || buffer.get( position + 3 ) != (byte) (0x80 | (codePoint & 0x3F)) ) return -1;
+                    break;
+            }
+            position += byteCount;
+        }
+        return position;
+    }
+
+    private static long update( long h, final char c )
+    {
+        return (h ^ c) * FNV_PRIME;
+    }
+
+    private static long update( long h, final String value, final int from, final int to )
+    {
+        for ( int i = from; i < to; i++ )
+        {
+            h = (h ^ value.charAt( i )) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Improves the distribution of the bits of a FNV-1a hash (the finalization step of MurmurHash3).
+     */
+    private static long finish( long h )
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.util.function.Consumer;
+
+/**
+ * An index that holds the entries themselves (rather than, for example, only a fingerprint of each entry), and can
+ * therefore provide them. Such an index can be used to build other data structures from, like a filter or a
+ * different index.
+ */
+interface EnumerableBlacklistIndex extends BlacklistIndex
+{
+    /**
+     * Provides every entry in the index, in its textual representation (as it would occur in a block list) to the
+     * consumer. Unlike lookups, this is not expected to be cheap.
+     *
+     * @param consumer The consumer of entries.
+     */
+    void forEachEntry( Consumer<String> consumer );
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A task that is sent by the senior member of a cluster to other cluster nodes, to have them install a blacklist
+ * that the senior member obtained from its remote source.
+ * <p>
+ * The blacklist is transferred in its serialized snapshot form (see {@link BlacklistSnapshot#toBytes(Blacklist)}),
+ * which the receiving nodes restore without having to retrieve or parse the blacklist themselves.
+ */
+public class InstallBlacklistTask implements ClusterTask<Void>
+{
+    private static final Logger Log = LoggerFactory.getLogger( InstallBlacklistTask.class );
+
+    private byte[] snapshot;
+
+    /**
+     * Constructs an empty instance, as required for deserialization.
+     */
+    public InstallBlacklistTask()
+    {
+    }
+
+    /**
+     * Constructs a task that installs a blacklist.
+     *
+     * @param snapshot The serialized blacklist (cannot be null).
+     */
+    public InstallBlacklistTask( final byte[] snapshot )
+    {
+        if ( snapshot == null )
+        {
+            throw new IllegalArgumentException( "Argument 'snapshot' cannot be null." );
+        }
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns the serialized blacklist that this task installs.
+     *
+     * @return The serialized blacklist.
+     */
+    byte[] getSnapshot()
+    {
+        return snapshot;
+    }
+
+    @Override
+    public Void getResult()
+    {
+        return null;
+    }
+
+    @Override
+    public void run()
+    {
+        final BlacklistSpamPlugin plugin = (BlacklistSpamPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName( "Spam blacklist" ).orElse( null );
+        if ( plugin == null )
+        {
+            Log.debug( "Ignoring blacklist that was received from the cluster, as the plugin is not loaded." );
+            return;
+        }
+        plugin.installFromCluster( snapshot );
+    }
+
+    @Override
+    public void writeExternal( final ObjectOutput out ) throws IOException
+    {
+        ExternalizableUtil.getInstance().writeByteArray( out, snapshot );
+    }
+
+    @Override
+    public void readExternal( final ObjectInput in ) throws IOException
+    {
+        snapshot = ExternalizableUtil.getInstance().readByteArray( in );
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+/**
+ * A persistent map of domain labels to values, implemented as a hash array mapped trie.
+ * <p>
+ * Every node of the map is owned by an 'edit' token. An update that is made with the token that owns a node modifies
+ * that node in place. Otherwise, the node (and the path that leads to it) is copied, and the original is left
+ * unchanged. That allows a map to be populated efficiently, after which new versions of it can be derived that share
+ * everything but the changed paths with the original.
+ * <p>
+ * Lookups do not allocate.
+ *
+ * @param <V> The type of the values in the map.
+ */
+final class LabelMap<V>
+{
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * The largest shift at which hash bits are still available. Beyond that, keys with equal hashes are kept in a
+     * collision node.
+     */
+    private static final int MAX_SHIFT = 30;
+
+    private final Object edit;
+
+    private final boolean collision;
+
+    private int bitmap;
+
+    /**
+     * Pairs of slots. In a bitmap node, a pair is either a key and its value, or null and a sub-node. In a collision
+     * node, every pair is a key and its value.
+     */
+    private Object[] array;
+
+    private LabelMap( final Object edit, final boolean collision, final int bitmap, final Object[] array )
+    {
+        this.edit = edit;
+        this.collision = collision;
+        this.bitmap = bitmap;
+        this.array = array;
+    }
+
+    /**
+     * Creates a map with one entry.
+     *
+     * @param edit The token that owns the map.
+     * @param label The key of the entry (cannot be null).
+     * @param value The value of the entry.
+     * @param <V> The type of the values in the map.
+     * @return A new map.
+     */
+    static <V> LabelMap<V> of( final Object edit, final String label, final V value )
+    {
+        return new LabelMap<>( edit, false, bit( hash( label ), 0 ), new Object[] { label, value } );
+    }
+
+    /**
+     * Returns the value for a label that is a region of a String.
+     *
+     * @param domain The String that contains the label.
+     * @param start The index of the first character of the label.
+     * @param end The index after the last character of the label.
+     * @param hash The hash of the label, as computed by {@link #hash(String, int, int)}.
+     * @return The value, or null if the map does not contain the label.
+     */
+    @SuppressWarnings( "unchecked" )
+    V get( final String domain, final int start, final int end, final int hash )
+    {
+        final int length = end - start;
+        LabelMap<V> node = this;
+        int shift = 0;
+        while ( true )
+        {
+            if ( node.collision )
+            {
+                for ( int i = 0; i < node.array.length; i += 2 )
+                {
+                    final String label = (String) node.array[ i ];
+                    if ( label.length() == length && domain.regionMatches( start, label, 0, length ) )
+                    {
+                        return (V) node.array[ i + 1 ];
+                    }
+                }
+                return null;
+            }
+
+            final int bit = bit( hash, shift );
+            if ( (node.bitmap & bit) == 0 )
+            {
+                return null;
+            }
+            final int index = node.index( bit );
+            final Object key = node.array[ index ];
+            if ( key == null )
+            {
+                node = (LabelMap<V>) node.array[ index + 1 ];
+                shift += BITS;
+                continue;
+            }
+            final String label = (String) key;
+            return label.length() == length && domain.regionMatches( start, label, 0, length ) ? (V) node.array[ index + 1 ] : null;
+        }
+    }
+
+    /**
+     * Associates a value with a label.
+     *
+     * @param edit The token of the map version that is being updated.
+     * @param label The label (cannot be null).
+     * @param value The value.
+     * @return The map that contains the association: this instance if it was owned by the token, otherwise a copy.
+     */
+    LabelMap<V> put( final Object edit, final String label, final V value )
+    {
+        return put( edit, label, hash( label ), value, 0 );
+    }
+
+    /**
+     * Removes the value for a label.
+     *
+     * @param edit The token of the map version that is being updated.
+     * @param label The label (cannot be null).
+     * @return The map that no longer contains the label (this instance if it was owned by the token or did not
+     *         contain the label, otherwise a copy), or null if the map is empty.
+     */
+    LabelMap<V> remove( final Object edit, final String label )
+    {
+        return remove( edit, label, hash( label ), 0 );
+    }
+
+    /**
+     * Visits every entry in the map.
+     *
+     * @param visitor The visitor.
+     * @param <E> The type of exception thrown by the visitor.
+     * @throws E When thrown by the visitor.
+     */
+    @SuppressWarnings( "unchecked" )
+    <E extends Exception> void forEach( final Visitor<V, E> visitor ) throws E
+    {
+        for ( int i = 0; i < array.length; i += 2 )
+        {
+            if ( array[ i ] == null )
+            {
+                ((LabelMap<V>) array[ i + 1 ]).forEach( visitor );
+            }
+            else
+            {
+                visitor.visit( (String) array[ i ], (V) array[ i + 1 ] );
+            }
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private LabelMap<V> put( final Object edit, final String label, final int hash, final V value, final int shift )
+    {
+        if ( collision )
+        {
+            for ( int i = 0; i < array.length; i += 2 )
+            {
+                if ( array[ i ].equals( label ) )
+                {
+                    return replace( edit, i + 1, value );
+                }
+            }
+            return insert( edit, 0, array.length, label, value );
+        }
+
+        final int bit = bit( hash, shift );
+        final int index = index( bit );
+        if ( (bitmap & bit) == 0 )
+        {
+            return insert( edit, bit, index, label, value );
+        }
+
+        final Object key = array[ index ];
+        if ( key == null )
+        {
+            final LabelMap<V> child = (LabelMap<V>) array[ index + 1 ];
+            return replace( edit, index + 1, child.put( edit, label, hash, value, shift + BITS ) );
+        }
+        if ( key.equals( label ) )
+        {
+            return replace( edit, index + 1, value );
+        }
+
+        final LabelMap<V> split = split( edit, shift + BITS, (String) key, array[ index + 1 ], label, hash, value );
+        final LabelMap<V> result = editable( edit );
+        result.array[ index ] = null;
+        result.array[ index + 1 ] = split;
+        return result;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private LabelMap<V> remove( final Object edit, final String label, final int hash, final int shift )
+    {
+        if ( collision )
+        {
+            for ( int i = 0; i < array.length; i += 2 )
+            {
+                if ( array[ i ].equals( label ) )
+                {
+                    return delete( edit, 0, i );
+                }
+            }
+            return this;
+        }
+
+        final int bit = bit( hash, shift );
+        if ( (bitmap & bit) == 0 )
+        {
+            return this;
+        }
+        final int index = index( bit );
+        final Object key = array[ index ];
+        if ( key == null )
+        {
+            final LabelMap<V> child = (LabelMap<V>) array[ index + 1 ];
+            final LabelMap<V> updated = child.remove( edit, label, hash, shift + BITS );
+            return updated == null ? delete( edit, bit, index ) : replace( edit, index + 1, updated );
+        }
+        return key.equals( label ) ? delete( edit, bit, index ) : this;
+    }
+
+    /**
+     * Creates a node that holds two entries, of which the keys are known to differ.
+     */
+    private static <V> LabelMap<V> split( final Object edit, final int shift, final String key1, final Object value1, final String key2, final int hash2, final Object value2 )
+    {
+        if ( shift > MAX_SHIFT )
+        {
+            return new LabelMap<>( edit, true, 0, new Object[] { key1, value1, key2, value2 } );
+        }
+
+        final int bit1 = bit( hash( key1 ), shift );
+        final int bit2 = bit( hash2, shift );
+        if ( bit1 == bit2 )
+        {
+            return new LabelMap<>( edit, false, bit1, new Object[] { null, split( edit, shift + BITS, key1, value1, key2, hash2, value2 ) } );
+        }
+        return Integer.compareUnsigned( bit1, bit2 ) < 0
+            ? new LabelMap<>( edit, false, bit1 | bit2, new Object[] { key1, value1, key2, value2 } )
+            : new LabelMap<>( edit, false, bit1 | bit2, new Object[] { key2, value2, key1, value1 } );
+    }
+
+    private LabelMap<V> replace( final Object edit, final int slot, final Object value )
+    {
+        if ( array[ slot ] == value )
+        {
+            return this;
+        }
+        final LabelMap<V> result = editable( edit );
+        result.array[ slot ] = value;
+        return result;
+    }
+
+    private LabelMap<V> insert( final Object edit, final int bit, final int index, final String label, final Object value )
+    {
+        final Object[] updated = new Object[ array.length + 2 ];
+        System.arraycopy( array, 0, updated, 0, index );
+        updated[ index ] = label;
+        updated[ index + 1 ] = value;
+        System.arraycopy( array, index, updated, index + 2, array.length - index );
+        return update( edit, bitmap | bit, updated );
+    }
+
+    private LabelMap<V> delete( final Object edit, final int bit, final int index )
+    {
+        if ( array.length == 2 )
+        {
+            return null;
+        }
+        final Object[] updated = new Object[ array.length - 2 ];
+        System.arraycopy( array, 0, updated, 0, index );
+        System.arraycopy( array, index + 2, updated, index, array.length - index - 2 );
+        return update( edit, bitmap & ~bit, updated );
+    }
+
+    private LabelMap<V> update( final Object edit, final int bitmap, final Object[] array )
+    {
+        if ( this.edit == edit )
+        {
+            this.bitmap = bitmap;
+            this.array = array;
+            return this;
+        }
+        return new LabelMap<>( edit, collision, bitmap, array );
+    }
+
+    private LabelMap<V> editable( final Object edit )
+    {
+        return this.edit == edit ? this : new LabelMap<>( edit, collision, bitmap, array.clone() );
+    }
+
+    private int index( final int bit )
+    {
+        return 2 * Integer.bitCount( bitmap & (bit - 1) );
+    }
+
+    private static int bit( final int hash, final int shift )
+    {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * Computes the hash of a label that is a region of a String. Equal labels have equal hashes, regardless of the
+     * String that they are part of.
+     */
+    static int hash( final String value, final int start, final int end )
+    {
+        final int h = DomainTrie.hash( value, start, end );
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash( final String label )
+    {
+        return hash( label, 0, label.length() );
+    }
+
+    /**
+     * Visits the entries of a map.
+     *
+     * @param <V> The type of the values in the map.
+     * @param <E> The type of exception thrown by the visitor.
+     */
+    interface Visitor<V, E extends Exception>
+    {
+        void visit( String label, V value ) throws E;
+    }
+}
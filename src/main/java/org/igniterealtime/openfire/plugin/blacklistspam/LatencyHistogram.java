@@ -0,0 +1,288 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations in a histogram, per outcome of the operation that was measured.
+ * <p>
+ * Durations are counted in log-linear buckets: every power of two is divided in {@link #SUB_BUCKETS} buckets of
+ * equal width, which gives every recorded duration a precision of about six percent. Each thread records into its own
+ * set of counters, which it alone writes to, so recording a duration requires neither locks nor compare-and-set
+ * operations. Counters of all threads are added up when percentiles are requested. The counters of a thread that has
+ * terminated are folded into a shared set of counters, after which they are discarded.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean
+{
+    /**
+     * The outcome of a measured operation.
+     */
+    public enum Outcome
+    {
+        /**
+         * The stanza was allowed to pass.
+         */
+        PASS,
+
+        /**
+         * The stanza was rejected.
+         */
+        REJECT,
+
+        /**
+         * The stanza was rejected, and stored in a file.
+         */
+        REJECT_STORE
+    }
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Durations longer than 2^MAX_EXPONENT nanoseconds (about eighteen minutes) are counted in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final int OUTCOME_COUNT = Outcome.values().length;
+
+    private final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<AtomicLongArray> recorder = ThreadLocal.withInitial( () -> {
+        final AtomicLongArray counts = new AtomicLongArray( OUTCOME_COUNT * BUCKET_COUNT );
+        prune();
+        recorders.add( new Recorder( Thread.currentThread(), counts ) );
+        return counts;
+    } );
+
+    /**
+     * Counts that were recorded by threads that have since terminated.
+     */
+    private final long[] retired = new long[ OUTCOME_COUNT * BUCKET_COUNT ];
+
+    /**
+     * Counts that were recorded before the last reset, which are subtracted from the recorded counts.
+     */
+    private volatile long[] baseline = new long[ OUTCOME_COUNT * BUCKET_COUNT ];
+
+    /**
+     * Records a duration.
+     *
+     * @param outcome The outcome of the operation that was measured (cannot be null).
+     * @param nanos The duration of the operation, in nanoseconds.
+     */
+    public void record( final Outcome outcome, final long nanos )
+    {
+        final AtomicLongArray counts = recorder.get();
+        final int index = outcome.ordinal() * BUCKET_COUNT + bucketOf( nanos );
+        // Only the current thread writes to these counters: an ordered write suffices.
+        counts.lazySet( index, counts.get( index ) + 1 );
+    }
+
+    /**
+     * Returns the percentiles of the durations that were recorded since the last reset, for one outcome.
+     *
+     * @param outcome The outcome (cannot be null).
+     * @return The percentiles.
+     */
+    public synchronized LatencySummary getSummary( final Outcome outcome )
+    {
+        prune();
+        final long[] counts = new long[ BUCKET_COUNT ];
+        final int offset = outcome.ordinal() * BUCKET_COUNT;
+        final long[] base = baseline;
+        long total = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            long count = retired[ offset + i ] - base[ offset + i ];
+            for ( final Recorder recorded : recorders )
+            {
+                count += recorded.counts.get( offset + i );
+            }
+            counts[ i ] = count;
+            total += count;
+        }
+        return new LatencySummary( outcome.name(), total, percentile( counts, total, 0.5 ), percentile( counts, total, 0.99 ), percentile( counts, total, 0.999 ) );
+    }
+
+    @Override
+    public List<LatencySummary> getSummaries()
+    {
+        final List<LatencySummary> result = new ArrayList<>( OUTCOME_COUNT );
+        for ( final Outcome outcome : Outcome.values() )
+        {
+            result.add( getSummary( outcome ) );
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        prune();
+        final long[] counts = retired.clone();
+        for ( final Recorder recorded : recorders )
+        {
+            for ( int i = 0; i < counts.length; i++ )
+            {
+                counts[ i ] += recorded.counts.get( i );
+            }
+        }
+        baseline = counts;
+    }
+
+    /**
+     * Folds the counters of threads that have terminated into the shared counters, and discards them.
+     */
+    private synchronized void prune()
+    {
+        final Iterator<Recorder> iterator = recorders.iterator();
+        while ( iterator.hasNext() )
+        {
+            final Recorder recorded = iterator.next();
+            final Thread owner = recorded.owner.get();
+            if ( owner == null || !owner.isAlive() )
+            {
+                // A thread that has terminated no longer writes to its counters.
+                for ( int i = 0; i < retired.length; i++ )
+                {
+                    retired[ i ] += recorded.counts.get( i );
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    static int bucketOf( final long nanos )
+    {
+        if ( nanos < SUB_BUCKETS )
+        {
+            return (int) Math.max( 0, nanos );
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros( nanos );
+        if ( exponent > MAX_EXPONENT )
+        {
+            return BUCKET_COUNT - 1;
+        }
+        final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the middle of the range of durations that is counted in a bucket, in microseconds.
+     */
+    static double valueOf( final int bucket )
+    {
+        if ( bucket < SUB_BUCKETS )
+        {
+            return bucket / 1000.0;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        final long lowest = (1L << exponent) + (bucket % SUB_BUCKETS) * width;
+        return (lowest + width / 2.0) / 1000.0;
+    }
+
+    private static double percentile( final long[] counts, final long total, final double percentile )
+    {
+        if ( total <= 0 )
+        {
+            return 0;
+        }
+        final long rank = (long) Math.ceil( total * percentile );
+        long seen = 0;
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            seen += counts[ i ];
+            if ( seen >= rank )
+            {
+                return valueOf( i );
+            }
+        }
+        return valueOf( counts.length - 1 );
+    }
+
+    /**
+     * The counters of one thread.
+     */
+    private static final class Recorder
+    {
+        private final WeakReference<Thread> owner;
+        private final AtomicLongArray counts;
+
+        Recorder( final Thread owner, final AtomicLongArray counts )
+        {
+            this.owner = new WeakReference<>( owner );
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * Percentiles of the durations that were recorded for one outcome, in microseconds.
+     */
+    public static final class LatencySummary
+    {
+        private final String outcome;
+        private final long count;
+        private final double p50;
+        private final double p99;
+        private final double p999;
+
+        LatencySummary( final String outcome, final long count, final double p50, final double p99, final double p999 )
+        {
+            this.outcome = outcome;
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        public String getOutcome()
+        {
+            return outcome;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public double getP50()
+        {
+            return p50;
+        }
+
+        public double getP99()
+        {
+            return p99;
+        }
+
+        public double getP999()
+        {
+            return p999;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.util.List;
+
+/**
+ * Exposes the latencies that the plugin adds to the processing of stanzas through JMX.
+ */
+public interface LatencyHistogramMXBean
+{
+    /**
+     * Returns the percentiles of the recorded latencies (in microseconds), per outcome.
+     *
+     * @return The percentiles of every outcome.
+     */
+    List<LatencyHistogram.LatencySummary> getSummaries();
+
+    /**
+     * Discards all latencies that were recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An index of blacklist entries that is stored in a file, which is memory-mapped rather than loaded on the heap.
+ * <p>
+ * The file consists of a header, followed by an open-addressing hash table of offsets, followed by an arena of
+ * records. Each record holds the 64-bit hash of an entry, and the UTF-8 encoded textual representation of that entry.
+ * Lookups probe the mapped buffer directly: the hash table is used to find candidate records, of which the hash and
+ * the bytes are compared with the (parts of the) JID that is being looked up.
+ * <p>
+ * All numbers in the file are big-endian. Offsets are 32-bit values, which limits the size of the file to 2GB.
+ */
+final class MappedBlacklistIndex implements EnumerableBlacklistIndex, EntryKey.Probe
+{
+    private static final int MAGIC = 0x424C4958; // 'BLIX'
+
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final int kinds;
+    private final int size;
+    private final int tableOffset;
+    private final int mask;
+
+    private final String source;
+    private final String eTag;
+    private final String lastModified;
+
+    private MappedBlacklistIndex( final ByteBuffer buffer ) throws IOException
+    {
+        this.buffer = buffer;
+        if ( buffer.getInt( 0 ) != MAGIC )
+        {
+            throw new IOException( "The file is not a compiled blacklist." );
+        }
+        if ( buffer.getInt( 4 ) != VERSION )
+        {
+            throw new IOException( "Unsupported version of compiled blacklist: " + buffer.getInt( 4 ) );
+        }
+        this.kinds = buffer.getInt( 8 );
+        this.size = buffer.getInt( 12 );
+        final int tableSize = buffer.getInt( 16 );
+        this.mask = tableSize - 1;
+
+        int position = 20;
+        this.source = readNullable( buffer, position );
+        position += 4 + encodedLength( source );
+        this.eTag = readNullable( buffer, position );
+        position += 4 + encodedLength( eTag );
+        this.lastModified = readNullable( buffer, position );
+        position += 4 + encodedLength( lastModified );
+        this.tableOffset = position;
+    }
+
+    /**
+     * Maps a file that was written by {@link #write(DomainTrie, String, String, String, Path)} into memory.
+     *
+     * @param path The file to map (cannot be null).
+     * @return An index that is backed by the content of the file.
+     * @throws IOException On any problem reading the file, or if the file is not a compiled blacklist.
+     */
+    static MappedBlacklistIndex open( final Path path ) throws IOException
+    {
+        try ( final FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            // The mapping remains valid after the channel is closed.
+            final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            return new MappedBlacklistIndex( buffer );
+        }
+    }
+
+    /**
+     * Compiles the entries of a trie into a file. An existing file is replaced only after the new file has been written
+     * completely.
+     *
+     * @param entries The entries to compile (cannot be null).
+     * @param source The URL of the resource from which the entries were obtained (can be null).
+     * @param eTag The value of the 'ETag' HTTP response header of that resource (can be null).
+     * @param lastModified The value of the 'Last-Modified' HTTP response header of that resource (can be null).
+     * @param path The file to write (cannot be null).
+     * @throws IOException On any problem writing the file.
+     */
+    static void write( final DomainTrie entries, final String source, final String eTag, final String lastModified, final Path path ) throws IOException
+    {
+        final List<byte[]> records = new ArrayList<>( entries.size() );
+        final long[] hashes = new long[ entries.size() ];
+        final int[] kinds = new int[ 1 ];
+        entries.forEachEntry( entry -> {
+            hashes[ records.size() ] = EntryKey.hash( entry );
+            records.add( entry.getBytes( StandardCharsets.UTF_8 ) );
+            kinds[ 0 ] |= EntryKey.kindOf( entry );
+        } );
+
+        final int tableSize = Math.max( 2, Integer.highestOneBit( Math.max( 1, records.size() ) * 2 - 1 ) << 1 );
+        final int headerSize = 20 + 12 + encodedLength( source ) + encodedLength( eTag ) + encodedLength( lastModified );
+        final long recordsOffset = headerSize + 4L * tableSize;
+
+        final int[] table = new int[ tableSize ];
+        long offset = recordsOffset;
+        for ( int i = 0; i < records.size(); i++ )
+        {
+            if ( offset > Integer.MAX_VALUE )
+            {
+                throw new IOException( "The blacklist is too large to be compiled." );
+            }
+            int slot = (int) hashes[ i ] & (tableSize - 1);
+            while ( table[ slot ] != 0 )
+            {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[ slot ] = (int) offset;
+            offset += 10 + records.get( i ).length;
+        }
+
+        Files.createDirectories( path.toAbsolutePath().getParent() );
+        final Path temp = path.resolveSibling( path.getFileName() + ".tmp" );
+        try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temp ) ) ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( kinds[ 0 ] );
+            out.writeInt( records.size() );
+            out.writeInt( tableSize );
+            writeNullable( out, source );
+            writeNullable( out, eTag );
+            writeNullable( out, lastModified );
+            for ( final int value : table )
+            {
+                out.writeInt( value );
+            }
+            for ( int i = 0; i < records.size(); i++ )
+            {
+                final byte[] record = records.get( i );
+                out.writeLong( hashes[ i ] );
+                out.writeShort( record.length );
+                out.write( record );
+            }
+        }
+        Files.move( temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    @Override
+    public boolean contains( final String node, final String domain, final String resource )
+    {
+        return EntryKey.anyMatch( this, kinds, node, domain, resource );
+    }
+
+    @Override
+    public String getMatchingEntry( final String node, final String domain, final String resource )
+    {
+        return EntryKey.findMatch( this, kinds, node, domain, resource );
+    }
+
+    @Override
+    public Blacklist.DomainVerdict getDomainVerdict( final String domain )
+    {
+        if ( contains( null, domain, null ) )
+        {
+            return Blacklist.DomainVerdict.BLOCKED;
+        }
+        return (kinds & (EntryKey.BARE | EntryKey.FULL)) == 0 ? Blacklist.DomainVerdict.CLEAR : Blacklist.DomainVerdict.PARTIAL;
+    }
+
+    @Override
+    public boolean probe( final long hash, final String node, final String domain, final int domainFrom, final String resource, final boolean wildcard )
+    {
+        for ( int slot = (int) hash & mask; ; slot = (slot + 1) & mask )
+        {
+            final int offset = buffer.getInt( tableOffset + 4 * slot );
+            if ( offset == 0 )
+            {
+                return false;
+            }
+            if ( buffer.getLong( offset ) == hash )
+            {
+                final int length = buffer.getShort( offset + 8 ) & 0xFFFF;
+                if ( EntryKey.equalsUtf8( buffer, offset + 10, length, node, domain, domainFrom, resource, wildcard ) )
+                {
+                    return true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public void forEachEntry( final Consumer<String> consumer )
+    {
+        for ( int slot = 0; slot <= mask; slot++ )
+        {
+            final int offset = buffer.getInt( tableOffset + 4 * slot );
+            if ( offset != 0 )
+            {
+                final int length = buffer.getShort( offset + 8 ) & 0xFFFF;
+                final byte[] bytes = new byte[ length ];
+                for ( int i = 0; i < length; i++ )
+                {
+                    bytes[ i ] = buffer.get( offset + 10 + i );
+                }
+                consumer.accept( new String( bytes, StandardCharsets.UTF_8 ) );
+            }
+        }
+    }
+
+    String getSource()
+    {
+        return source;
+    }
+
+    String getETag()
+    {
+        return eTag;
+    }
+
+    String getLastModified()
+    {
+        return lastModified;
+    }
+
+    private static int encodedLength( final String value )
+    {
+        return value == null ? 0 : value.getBytes( StandardCharsets.UTF_8 ).length;
+    }
+
+    private static void writeNullable( final DataOutputStream out, final String value ) throws IOException
+    {
+        if ( value == null )
+        {
+            out.writeInt( -1 );
+        }
+        else
+        {
+            final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    private static String readNullable( final ByteBuffer buffer, final int position )
+    {
+        final int length = buffer.getInt( position );
+        if ( length < 0 )
+        {
+            return null;
+        }
+        final byte[] bytes = new byte[ length ];
+        for ( int i = 0; i < length; i++ )
+        {
+            bytes[ i ] = buffer.get( position + 4 + i );
+        }
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import java.util.Arrays;
+
+/**
+ * An index of blacklist entries that is based on a minimal perfect hash function, that is computed when the index is
+ * built.
+ * <p>
+ * The hash function maps each of the <em>n</em> entries to a unique position in <em>[0, n)</em>, using a cascade of
+ * bit arrays (as in BBHash): on each level, an entry is hashed to a bit; bits that are hit by exactly one entry are
+ * set, and the entries that collided move on to the next level. The position of an entry is the rank of its bit
+ * across all levels. At that position, a dense array holds a 64-bit fingerprint (the hash) of the entry.
+ * <p>
+ * A lookup hashes a key once, typically probes one or two levels, reads one fingerprint and compares it. The index
+ * does not store the entries themselves, which makes it several times smaller than a hash set of Strings. As a
+ * consequence, a key that is not on the blacklist is reported to be on it if its 64-bit hash equals that of an entry.
+ * The probability of that happening is in the order of <em>n / 2<sup>64</sup></em> per lookup. For the same reason,
+ * the entries cannot be enumerated.
+ */
+final class PerfectHashBlacklistIndex implements BlacklistIndex, EntryKey.Probe
+{
+    /**
+     * The ratio between the amount of bits in a level and the amount of entries to be placed in it. Higher values use
+     * more memory, but place more entries in the first levels.
+     */
+    private static final double GAMMA = 2.0;
+
+    private static final int MAX_LEVELS = 32;
+
+    private final long[] bits;
+
+    /**
+     * For each level: the index of its first word in {@link #bits}. Has one extra element that marks the end.
+     */
+    private final int[] levelOffsets;
+
+    /**
+     * For each word in {@link #bits}: the amount of set bits in all preceding words.
+     */
+    private final int[] ranks;
+
+    /**
+     * The fingerprints of the entries, indexed by their position.
+     */
+    private final long[] fingerprints;
+
+    /**
+     * Fingerprints of entries that could not be placed in any level, sorted.
+     */
+    private final long[] overflow;
+
+    private final int kinds;
+
+    private PerfectHashBlacklistIndex( final long[] bits, final int[] levelOffsets, final long[] fingerprints, final long[] overflow, final int kinds )
+    {
+        this.bits = bits;
+        this.levelOffsets = levelOffsets;
+        this.fingerprints = fingerprints;
+        this.overflow = overflow;
+        this.kinds = kinds;
+
+        this.ranks = new int[ bits.length ];
+        int rank = 0;
+        for ( int i = 0; i < bits.length; i++ )
+        {
+            ranks[ i ] = rank;
+            rank += Long.bitCount( bits[ i ] );
+        }
+    }
+
+    /**
+     * Builds an index that holds the same entries as another index.
+     *
+     * @param entries The entries to index (cannot be null).
+     * @return A new index.
+     */
+    static PerfectHashBlacklistIndex build( final EnumerableBlacklistIndex entries )
+    {
+        final long[] allHashes = new long[ entries.size() ];
+        final int[] count = new int[ 1 ];
+        final int[] kinds = new int[ 1 ];
+        entries.forEachEntry( entry -> {
+            allHashes[ count[ 0 ]++ ] = EntryKey.hash( entry );
+            kinds[ 0 ] |= EntryKey.kindOf( entry );
+        } );
+
+        // Entries with equal hashes are indistinguishable to this index (and cannot be separated by any level).
+        Arrays.sort( allHashes, 0, count[ 0 ] );
+        int unique = 0;
+        for ( int i = 0; i < count[ 0 ]; i++ )
+        {
+            if ( unique == 0 || allHashes[ unique - 1 ] != allHashes[ i ] )
+            {
+                allHashes[ unique++ ] = allHashes[ i ];
+            }
+        }
+
+        long[] remaining = Arrays.copyOf( allHashes, unique );
+        final long[][] levels = new long[ MAX_LEVELS ][];
+        int levelCount = 0;
+        while ( remaining.length > 0 && levelCount < MAX_LEVELS )
+        {
+            final long bitCount = Math.max( 64, (long) Math.ceil( remaining.length * GAMMA ) );
+            final long[] level = new long[ (int) ((bitCount + 63) / 64) ];
+            final long[] collisions = new long[ level.length ];
+            final long levelBits = level.length * 64L;
+            for ( final long hash : remaining )
+            {
+                final long bit = position( hash, levelCount, levelBits );
+                final int word = (int) (bit >>> 6);
+                if ( (level[ word ] & (1L << bit)) != 0 )
+                {
+                    collisions[ word ] |= 1L << bit;
+                }
+                level[ word ] |= 1L << bit;
+            }
+            int next = 0;
+            for ( final long hash : remaining )
+            {
+                final long bit = position( hash, levelCount, levelBits );
+                if ( (collisions[ (int) (bit >>> 6) ] & (1L << bit)) != 0 )
+                {
+                    remaining[ next++ ] = hash;
+                }
+            }
+            for ( int i = 0; i < level.length; i++ )
+            {
+                level[ i ] &= ~collisions[ i ];
+            }
+            levels[ levelCount++ ] = level;
+            remaining = Arrays.copyOf( remaining, next );
+        }
+
+        final int[] levelOffsets = new int[ levelCount + 1 ];
+        for ( int i = 0; i < levelCount; i++ )
+        {
+            levelOffsets[ i + 1 ] = levelOffsets[ i ] + levels[ i ].length;
+        }
+        final long[] bits = new long[ levelOffsets[ levelCount ] ];
+        for ( int i = 0; i < levelCount; i++ )
+        {
+            System.arraycopy( levels[ i ], 0, bits, levelOffsets[ i ], levels[ i ].length );
+        }
+
+        final long[] overflow = remaining; // Sorted, as it is a subsequence of the sorted unique hashes.
+        final PerfectHashBlacklistIndex result = new PerfectHashBlacklistIndex( bits, levelOffsets, new long[ unique - overflow.length ], overflow, kinds[ 0 ] );
+        for ( int i = 0; i < unique; i++ )
+        {
+            final int index = result.indexOf( allHashes[ i ] );
+            if ( index >= 0 )
+            {
+                result.fingerprints[ index ] = allHashes[ i ];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of a hash, or -1 if the hash is not mapped to a position on any level.
+     */
+    private int indexOf( final long hash )
+    {
+        for ( int level = 0; level < levelOffsets.length - 1; level++ )
+        {
+            final long levelBits = (levelOffsets[ level + 1 ] - levelOffsets[ level ]) * 64L;
+            final long bit = position( hash, level, levelBits );
+            final int word = levelOffsets[ level ] + (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            if ( (bits[ word ] & mask) != 0 )
+            {
+                return ranks[ word ] + Long.bitCount( bits[ word ] & (mask - 1) );
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Maps a hash to a bit within a level, using a different mix of the hash for every level.
+     */
+    private static long position( final long hash, final int level, final long levelBits )
+    {
+        long h = hash + (level + 1) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        h ^= h >>> 32;
+        return Long.remainderUnsigned( h, levelBits );
+    }
+
+    @Override
+    public boolean contains( final String node, final String domain, final String resource )
+    {
+        return EntryKey.anyMatch( this, kinds, node, domain, resource );
+    }
+
+    @Override
+    public String getMatchingEntry( final String node, final String domain, final String resource )
+    {
+        return EntryKey.findMatch( this, kinds, node, domain, resource );
+    }
+
+    @Override
+    public boolean probe( final long hash, final String node, final String domain, final int domainFrom, final String resource, final boolean wildcard )
+    {
+        final int index = indexOf( hash );
+        if ( index >= 0 )
+        {
+            return fingerprints[ index ] == hash;
+        }
+        return overflow.length > 0 && Arrays.binarySearch( overflow, hash ) >= 0;
+    }
+
+    @Override
+    public Blacklist.DomainVerdict getDomainVerdict( final String domain )
+    {
+        if ( contains( null, domain, null ) )
+        {
+            return Blacklist.DomainVerdict.BLOCKED;
+        }
+        return (kinds & (EntryKey.BARE | EntryKey.FULL)) == 0 ? Blacklist.DomainVerdict.CLEAR : Blacklist.DomainVerdict.PARTIAL;
+    }
+
+    @Override
+    public int size()
+    {
+        return fingerprints.length + overflow.length;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs summaries of rejected stanzas, rather than a line for every stanza.
+ * <p>
+ * Rejections are counted per domain of the sender. Periodically, a summary is logged for every domain of which
+ * stanzas were rejected in that interval, with the amount of stanzas and the moments the first and last of those
+ * were rejected. Recording a rejection does not format or log anything, which keeps the cost of a flood of spam
+ * independent of the logging configuration.
+ * <p>
+ * The background task that logs the summaries is started when the first rejection is recorded.
+ */
+public class RejectionLog
+{
+    private static final Logger Log = LoggerFactory.getLogger( RejectionLog.class );
+
+    /**
+     * The interval in which rejected stanzas are summarized in the log.
+     */
+    public static final SystemProperty<Duration> REJECTEDLOG_INTERVAL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("blacklistspam.rejectedlog.interval")
+        .setPlugin("Spam blacklist")
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDefaultValue(Duration.ofMinutes(1))
+        .setMinValue(Duration.ofSeconds(1))
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The maximum amount of domains that are summarized individually. Rejections for additional domains are
+     * summarized together, which bounds the memory used when the domains of senders are very diverse.
+     */
+    private static final int MAX_DOMAINS = 1000;
+
+    private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+
+    private final Summary others = new Summary();
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile boolean running;
+
+    private volatile boolean shutdown;
+
+    /**
+     * Records that a stanza was rejected. This method does not block.
+     *
+     * @param domain The domain of the sender of the stanza (cannot be null).
+     */
+    public void record( final String domain )
+    {
+        if ( !running )
+        {
+            start();
+        }
+
+        Summary summary = summaries.get( domain );
+        if ( summary == null )
+        {
+            summary = summaries.size() < MAX_DOMAINS ? summaries.computeIfAbsent( domain, d -> new Summary() ) : others;
+        }
+        summary.record( System.currentTimeMillis() );
+    }
+
+    /**
+     * Stops the background task, after logging a summary of the rejections that were recorded since the last summary.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+        if ( scheduler != null )
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        running = false;
+        logSummaries();
+    }
+
+    private synchronized void start()
+    {
+        if ( running || shutdown )
+        {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            final Thread thread = new Thread( runnable, "blacklistspam-rejectedlog" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        final long interval = REJECTEDLOG_INTERVAL.getValue().toMillis();
+        scheduler.scheduleAtFixedRate( this::logSummaries, interval, interval, TimeUnit.MILLISECONDS );
+        running = true;
+    }
+
+    private void logSummaries()
+    {
+        try
+        {
+            for ( final Map.Entry<String, Summary> entry : summaries.entrySet() )
+            {
+                final Summary summary = entry.getValue();
+                final long firstSeen = summary.firstSeen.getAndSet( 0 );
+                final long count = summary.count.sumThenReset();
+                if ( count == 0 )
+                {
+                    // Nothing was rejected in the last interval. Free up room for other domains.
+                    retire( entry.getKey(), summary );
+                    continue;
+                }
+                final long lastSeen = Math.max( firstSeen, summary.lastSeen );
+                Log.info( "Rejected {} stanza(s) sent by domain '{}' that is on the blacklist, between {} and {}.", count, entry.getKey(), Instant.ofEpochMilli( firstSeen == 0 ? lastSeen : firstSeen ), Instant.ofEpochMilli( lastSeen ) );
+            }
+
+            final long firstSeen = others.firstSeen.getAndSet( 0 );
+            final long count = others.count.sumThenReset();
+            if ( count > 0 )
+            {
+                final long lastSeen = Math.max( firstSeen, others.lastSeen );
+                Log.info( "Rejected {} stanza(s) sent by other domains that are on the blacklist, between {} and {}.", count, Instant.ofEpochMilli( firstSeen == 0 ? lastSeen : firstSeen ), Instant.ofEpochMilli( lastSeen ) );
+            }
+        }
+        catch ( final Exception e )
+        {
+            Log.warn( "An unexpected exception occurred while logging a summary of rejected stanzas.", e );
+        }
+    }
+
+    /**
+     * Removes the summary of a domain of which nothing was rejected in the last interval.
+     *
+     * A thread that obtained the summary before it was removed can still record a rejection in it. Such rejections
+     * are detected after the removal, and are kept for the next interval.
+     */
+    private void retire( final String domain, final Summary summary )
+    {
+        if ( !summaries.remove( domain, summary ) || summary.count.sum() == 0 )
+        {
+            return;
+        }
+
+        final Summary current = summaries.putIfAbsent( domain, summary );
+        if ( current != null )
+        {
+            // Another thread already replaced the summary. Move the late rejections to that one.
+            final long firstSeen = summary.firstSeen.getAndSet( 0 );
+            current.count.add( summary.count.sumThenReset() );
+            if ( firstSeen != 0 )
+            {
+                current.firstSeen.accumulateAndGet( firstSeen, ( a, b ) -> a == 0 ? b : Math.min( a, b ) );
+            }
+        }
+    }
+
+    /**
+     * The rejections for one domain, since the last summary was logged.
+     */
+    private static final class Summary
+    {
+        /**
+         * The resolution of {@link #lastSeen}, in milliseconds. A coarse timestamp is written at most once per
+         * resolution, rather than for every rejection, which avoids contention on it in a flood of spam.
+         */
+        private static final long LAST_SEEN_RESOLUTION = 1000;
+
+        private final LongAdder count = new LongAdder();
+        private final AtomicLong firstSeen = new AtomicLong();
+        private volatile long lastSeen;
+
+        void record( final long timestamp )
+        {
+            count.increment();
+            if ( firstSeen.get() == 0 )
+            {
+                firstSeen.compareAndSet( 0, timestamp );
+            }
+            if ( timestamp - lastSeen >= LAST_SEEN_RESOLUTION )
+            {
+                lastSeen = timestamp;
+            }
+        }
+    }
+}
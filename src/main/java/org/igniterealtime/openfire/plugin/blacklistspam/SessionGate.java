@@ -0,0 +1,185 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.openfire.SessionManager;
+import org.jivesoftware.openfire.StreamID;
+import org.jivesoftware.openfire.event.ServerSessionEventListener;
+import org.jivesoftware.openfire.session.IncomingServerSession;
+import org.jivesoftware.openfire.session.LocalIncomingServerSession;
+import org.jivesoftware.openfire.session.Session;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closes incoming server-to-server sessions of remote domains that are blocked as a whole by the blacklist, as soon
+ * as such a session has been established. This prevents a blacklisted server from keeping its stream open, and from
+ * having every one of its stanzas processed, only to be rejected by the {@link StanzaBlocker}.
+ */
+public class SessionGate implements ServerSessionEventListener
+{
+    private static final Logger Log = LoggerFactory.getLogger( SessionGate.class );
+
+    /**
+     * Close incoming server-to-server sessions of domains that are on the blacklist.
+     */
+    public static final SystemProperty<Boolean> CHECK_SESSIONS = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("blacklistspam.check.sessions")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    private final StanzaBlocker stanzaBlocker;
+
+    private final LongAdder sessionsAccepted = new LongAdder();
+
+    private final LongAdder sessionsRejected = new LongAdder();
+
+    /**
+     * The stream IDs of the open sessions that are counted as accepted. A session is reported again for every domain
+     * that it validates later, but is counted only once.
+     */
+    private final Set<StreamID> acceptedSessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param stanzaBlocker The stanza blocker that holds the blacklist that is in use (cannot be null).
+     */
+    public SessionGate( final StanzaBlocker stanzaBlocker )
+    {
+        if ( stanzaBlocker == null )
+        {
+            throw new IllegalArgumentException( "Argument 'stanzaBlocker' cannot be null." );
+        }
+        this.stanzaBlocker = stanzaBlocker;
+    }
+
+    @Override
+    public void sessionCreated( final Session session )
+    {
+        if ( !(session instanceof IncomingServerSession) || !CHECK_SESSIONS.getValue() )
+        {
+            return;
+        }
+
+        final Blacklist blacklist = stanzaBlocker.getBlacklist();
+        if ( blacklist == null )
+        {
+            return;
+        }
+
+        for ( final String domain : ((IncomingServerSession) session).getValidatedDomains() )
+        {
+            if ( blacklist.getDomainVerdict( domain ) == Blacklist.DomainVerdict.BLOCKED )
+            {
+                Log.info( "Closing incoming server session {} of domain '{}' that is on the blacklist.", session.getStreamID(), domain );
+                reject( session );
+                return;
+            }
+        }
+        if ( acceptedSessions.add( session.getStreamID() ) )
+        {
+            sessionsAccepted.increment();
+        }
+    }
+
+    /**
+     * Closes the incoming server-to-server sessions of domains that are blocked as a whole by a newly installed
+     * blacklist, but that were not by the blacklist that it replaced. Only the (few) domains of connected remote
+     * servers are checked: client sessions are not inspected. Only sessions that are connected to this cluster node are
+     * closed.
+     *
+     * @param previous The blacklist that was in use before (can be null).
+     * @param current The blacklist that is now in use (cannot be null).
+     * @return The amount of sessions that were closed.
+     */
+    public int closeSessionsOfNewlyBlockedDomains( final Blacklist previous, final Blacklist current )
+    {
+        if ( !CHECK_SESSIONS.getValue() || current == previous )
+        {
+            return 0;
+        }
+
+        final SessionManager sessionManager = SessionManager.getInstance();
+        final Set<StreamID> closed = new HashSet<>();
+        for ( final String domain : sessionManager.getIncomingServers() )
+        {
+            if ( current.getDomainVerdict( domain ) != Blacklist.DomainVerdict.BLOCKED
+                || (previous != null && previous.getDomainVerdict( domain ) == Blacklist.DomainVerdict.BLOCKED) )
+            {
+                continue;
+            }
+            for ( final IncomingServerSession session : sessionManager.getIncomingServerSessions( domain ) )
+            {
+                // Every cluster node installs the blacklist, and closes the sessions that are connected to it. A session
+                // that validated more than one of the domains is closed once.
+                if ( !(session instanceof LocalIncomingServerSession) || !closed.add( session.getStreamID() ) )
+                {
+                    continue;
+                }
+                Log.info( "Closing incoming server session {} of domain '{}' that was added to the blacklist.", session.getStreamID(), domain );
+                reject( session );
+            }
+        }
+        return closed.size();
+    }
+
+    /**
+     * Closes a session, counting it as rejected.
+     */
+    private void reject( final Session session )
+    {
+        acceptedSessions.remove( session.getStreamID() );
+        sessionsRejected.increment();
+        session.close();
+    }
+
+    @Override
+    public void sessionDestroyed( final Session session )
+    {
+        acceptedSessions.remove( session.getStreamID() );
+    }
+
+    /**
+     * Returns the amount of incoming server-to-server sessions that were allowed to remain open.
+     *
+     * @return an amount of sessions.
+     */
+    public long getSessionsAccepted()
+    {
+        return sessionsAccepted.sum();
+    }
+
+    /**
+     * Returns the amount of incoming server-to-server sessions that were closed because their domain is on the
+     * blacklist.
+     *
+     * @return an amount of sessions.
+     */
+    public long getSessionsRejected()
+    {
+        return sessionsRejected.sum();
+    }
+}
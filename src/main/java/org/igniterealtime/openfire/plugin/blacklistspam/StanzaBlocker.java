@@ -19,21 +19,19 @@ package org.igniterealtime.openfire.plugin.blacklistspam;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.interceptor.PacketInterceptor;
 import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.jivesoftware.openfire.session.IncomingServerSession;
 import org.jivesoftware.openfire.session.Session;
-import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.SystemProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A {@link PacketInterceptor} that rejects stanzas, based on a blacklist.
@@ -79,12 +77,53 @@ public class StanzaBlocker implements PacketInterceptor
         .addListener((v) -> ((BlacklistSpamPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName("Spam blacklist").orElseThrow()).getStanzaBlocker().refreshPropertyValues())
         .build();
 
-    private Blacklist blacklist;
+    /**
+     * Record how long the verification of every stanza takes, for it to be reported in percentiles.
+     */
+    public static final SystemProperty<Boolean> LATENCY_HISTOGRAM_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("blacklistspam.latency.histogram.enabled")
+        .setPlugin("Spam blacklist")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener((v) -> ((BlacklistSpamPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName("Spam blacklist").orElseThrow()).getStanzaBlocker().refreshPropertyValues())
+        .build();
+
+    /**
+     * The maximum length of each part of a JID. Longer parts are left for {@link JID} to reject.
+     */
+    private static final int MAX_PART_LENGTH = 1023;
+
+    /**
+     * The message of the exception that is thrown for every rejected stanza. It does not identify the sender, so that
+     * rejecting a stanza does not require any formatting. Rejections are logged in summaries by {@link RejectionLog}.
+     */
+    private static final String REJECTION_MESSAGE = "Rejected stanza sent by an entity that is on the blacklist.";
+
+    /**
+     * One in this many blacklist lookups is timed, to report the average duration of a lookup without reading the
+     * clock for every stanza.
+     */
+    static final int LOOKUP_SAMPLE_INTERVAL = 64;
+
+    /**
+     * The blacklist and property values that are used to verify stanzas. These are replaced as one immutable
+     * snapshot, which allows stanzas to be verified without any locking.
+     */
+    private final AtomicReference<Settings> settings = new AtomicReference<>( new Settings( null, false, false, false, new ConcurrentHashMap<>(), new BlockCounters() ) );
+
+    private final BlockedStanzaWriter blockedStanzaWriter = new BlockedStanzaWriter();
+
+    private final RejectionLog rejectionLog = new RejectionLog();
 
-    private boolean checkIncoming;
-    private boolean checkOutgoing;
+    private final LongAdder checked = new LongAdder();
 
-    private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder lookupNanos = new LongAdder();
+
+    private final LongAdder lookupSamples = new LongAdder();
+
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
 
     public StanzaBlocker()
     {
@@ -94,49 +133,231 @@ public class StanzaBlocker implements PacketInterceptor
     @Override
     public void interceptPacket( final Packet packet, final Session session, final boolean incoming, final boolean processed ) throws PacketRejectedException
     {
-        rwl.readLock().lock();
-        try
+        final Settings current = settings.get();
+        final long start = current.recordLatency ? System.nanoTime() : 0;
+        final LatencyHistogram.Outcome outcome = check( current, packet, session, incoming, processed );
+        final PacketRejectedException rejection = outcome == LatencyHistogram.Outcome.PASS ? null : new PacketRejectedException( REJECTION_MESSAGE );
+        if ( current.recordLatency )
+        {
+            latencyHistogram.record( outcome, System.nanoTime() - start );
+        }
+        if ( rejection != null )
+        {
+            throw rejection;
+        }
+    }
+
+    /**
+     * Verifies a stanza, and processes it further when it is to be rejected.
+     *
+     * @return The outcome of the verification.
+     */
+    private LatencyHistogram.Outcome check( final Settings current, final Packet packet, final Session session, final boolean incoming, final boolean processed )
+    {
+        if ( current.blacklist == null || !((current.checkIncoming && incoming) || (current.checkOutgoing && processed)) )
+        {
+            return LatencyHistogram.Outcome.PASS;
+        }
+
+        final String from = packet.getElement().attributeValue( "from" );
+        if ( from == null || from.isEmpty() )
+        {
+            return LatencyHistogram.Outcome.PASS;
+        }
+
+        final boolean sample = ThreadLocalRandom.current().nextInt( LOOKUP_SAMPLE_INTERVAL ) == 0;
+        final long start = sample ? System.nanoTime() : 0;
+        final String matchingEntry = findMatchingEntry( current, packet, from, session );
+        if ( sample )
+        {
+            lookupNanos.add( System.nanoTime() - start );
+            lookupSamples.increment();
+        }
+        checked.increment();
+        if ( matchingEntry == null )
+        {
+            return LatencyHistogram.Outcome.PASS;
+        }
+
+        rejected.increment();
+        current.blockCounters.increment( matchingEntry );
+        final JID sender = packet.getFrom();
+        rejectionLog.record( sender.getDomain() );
+        if ( Log.isTraceEnabled() )
+        {
+            Log.trace( "Rejected stanza sent by entity '{}' that is on the blacklist (listed by: {}).", from, current.blacklist.getMatchingSources( sender.getNode(), sender.getDomain(), sender.getResource() ) );
+        }
+        try {
+            if ( BLOCKEDLOG_ENABLED.getValue() ) {
+                store(packet);
+                return LatencyHistogram.Outcome.REJECT_STORE;
+            }
+        } catch ( final Exception e ) {
+            Log.warn( "An unexpected exception occurred while trying to store a rejected stanza.", e );
+        }
+        return LatencyHistogram.Outcome.REJECT;
+    }
+
+    /**
+     * Verifies if the sender of a stanza is on the blacklist.
+     * <p>
+     * The address of the sender is taken from the raw value of the 'from' attribute of the stanza. When that value is
+     * already in its normalized form (which is the case for nearly all stanzas), its parts are looked up directly.
+     * Only otherwise is a {@link JID} created, which applies stringprep to the address.
+     *
+     * @return the entry of the blacklist that the sender matches, or null if the sender is not on the blacklist.
+     */
+    private static String findMatchingEntry( final Settings current, final Packet packet, final String from, final Session session )
+    {
+        // Same rules as JID parsing: the resource part starts at the first slash; the node part ends at the first '@' before that.
+        final int slash = from.indexOf( '/' );
+        final int domainEnd = slash < 0 ? from.length() : slash;
+        int at = from.indexOf( '@' );
+        if ( at >= domainEnd )
         {
-            if ( blacklist != null && packet.getFrom() != null
-                && ((checkIncoming && incoming) || (checkOutgoing && processed))
-                && blacklist.isOnBlacklist( packet.getFrom() )
-            )
+            at = -1;
+        }
+
+        final String node;
+        final String domain;
+        final String resource;
+        if ( (at < 0 || isNormalizedNode( from, 0, at ))
+            && isNormalizedDomain( from, at + 1, domainEnd )
+            && (slash < 0 || isNormalizedResource( from, slash + 1, from.length() )) )
+        {
+            node = at < 0 ? null : from.substring( 0, at );
+            domain = at < 0 && slash < 0 ? from : from.substring( at + 1, domainEnd );
+            resource = slash < 0 ? null : from.substring( slash + 1 );
+        }
+        else
+        {
+            final JID address = packet.getFrom();
+            node = address.getNode();
+            domain = address.getDomain();
+            resource = address.getResource();
+        }
+        return getMatchingEntry( current, node, domain, resource, session );
+    }
+
+    /**
+     * Looks up the entry of the blacklist that an address matches. For stanzas that are received over an incoming
+     * server-to-server session, the verdict for the (validated) domain of the sender is cached for as long as the
+     * blacklist is in use. For those domains of which none of the JIDs are on the blacklist, that saves a lookup per
+     * stanza. Of a domain that is blocked as a whole, the entry that blocks it is looked up without the node-part and
+     * resource-part of the address, so that all of its stanzas are attributed to the same entry.
+     */
+    private static String getMatchingEntry( final Settings current, final String node, final String domain, final String resource, final Session session )
+    {
+        if ( session instanceof IncomingServerSession )
+        {
+            Blacklist.DomainVerdict verdict = current.domainVerdicts.get( domain );
+            if ( verdict == null )
             {
-                Log.info( "Rejected stanza sent by entity '{}' that is on the blacklist.", packet.getFrom() );
-                try {
-                    if ( BLOCKEDLOG_ENABLED.getValue() ) {
-                        store(packet);
-                    }
-                } catch ( final Exception e ) {
-                    Log.warn( "An unexpected exception occurred while trying to store a rejected stanza.", e );
+                verdict = current.blacklist.getDomainVerdict( domain );
+                if ( ((IncomingServerSession) session).getValidatedDomains().contains( domain ) )
+                {
+                    // Only cache validated domains, which are bound by the amount of remote servers that are connected.
+                    current.domainVerdicts.put( domain, verdict );
                 }
-                throw new PacketRejectedException( "Rejected stanza sent by entity '" + packet.getFrom() + "' that is on the blacklist." );
+            }
+            switch ( verdict )
+            {
+                case BLOCKED:
+                    return current.blacklist.getMatchingEntry( null, domain, null );
+                case CLEAR:
+                    return null;
+                default:
+                    break;
             }
         }
-        finally
+        return current.blacklist.getMatchingEntry( node, domain, resource );
+    }
+
+    /**
+     * Checks if a (non-empty) node part consists of characters that nodeprep leaves unchanged: printable ASCII
+     * characters that are not uppercase, and that are not prohibited in a node part.
+     */
+    private static boolean isNormalizedNode( final String value, final int from, final int to )
+    {
+        if ( to <= from || to - from > MAX_PART_LENGTH )
         {
-            rwl.readLock().unlock();
+            return false;
         }
+        for ( int i = from; i < to; i++ )
+        {
+            final char c = value.charAt( i );
+            if ( c <= ' ' || c > '~' || (c >= 'A' && c <= 'Z')
+                || c == '"' || c == '&' || c == '\'' || c == '/' || c == ':' || c == '<' || c == '>' || c == '@' )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a domain part consists of non-empty labels of lowercase ASCII letters, digits and hyphens, which
+     * nameprep leaves unchanged.
+     */
+    private static boolean isNormalizedDomain( final String value, final int from, final int to )
+    {
+        if ( to <= from || to - from > MAX_PART_LENGTH || value.charAt( from ) == '.' || value.charAt( to - 1 ) == '.' )
+        {
+            return false;
+        }
+        for ( int i = from; i < to; i++ )
+        {
+            final char c = value.charAt( i );
+            if ( c == '.' ? value.charAt( i - 1 ) == '.' : !((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-') )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a (non-empty) resource part consists of printable ASCII characters (other than space), which
+     * resourceprep leaves unchanged.
+     */
+    private static boolean isNormalizedResource( final String value, final int from, final int to )
+    {
+        if ( to <= from || to - from > MAX_PART_LENGTH )
+        {
+            return false;
+        }
+        for ( int i = from; i < to; i++ )
+        {
+            final char c = value.charAt( i );
+            if ( c <= ' ' || c > '~' )
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Stores a stanza in a text file. This is intended to facilitate future analysis of spam.
+     * <p>
+     * The stanza is written to disk asynchronously. When stanzas are blocked faster than they can be written, some
+     * stanzas will not be stored.
      *
      * @param stanza The stanza to be stored (cannot be null).
      */
     public void store( final Packet stanza )
     {
-        final Path logDir = JiveGlobals.getHomePath().resolve("blacklist").resolve("blocked");
-        final Instant now = Instant.now();
-        final String fileName = DateTimeFormatter.BASIC_ISO_DATE.withZone(ZoneId.systemDefault()).format(now).concat(".txt" );
-        final String data = DateTimeFormatter.ISO_INSTANT.withZone(ZoneId.systemDefault()).format(now) + " from [" + stanza.getFrom() + "]: " + stanza.toXML() + System.lineSeparator();
+        blockedStanzaWriter.offer( stanza );
+    }
 
-        try {
-            Files.createDirectories( logDir );
-            Files.write( logDir.resolve( fileName ), data.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND );
-        } catch ( final Exception e ) {
-            Log.warn( "An exception occurred while attempting to store blocked stanza to file.", e );
-        }
+    /**
+     * Releases resources that are used by this instance. Stanzas that are queued to be stored in a file are written
+     * before this method returns.
+     */
+    public void shutdown()
+    {
+        rejectionLog.shutdown();
+        blockedStanzaWriter.shutdown();
     }
 
     /**
@@ -148,9 +369,82 @@ public class StanzaBlocker implements PacketInterceptor
      */
     public void setBlacklist( final Blacklist blacklist )
     {
-        rwl.writeLock().lock();
-        this.blacklist = blacklist;
-        rwl.writeLock().unlock();
+        settings.updateAndGet( current -> new Settings( blacklist, current.checkIncoming, current.checkOutgoing, current.recordLatency, new ConcurrentHashMap<>(), new BlockCounters() ) );
+    }
+
+    /**
+     * Returns the blacklist that is currently used to verify stanzas.
+     *
+     * @return Blacklist, possibly null.
+     */
+    public Blacklist getBlacklist()
+    {
+        return settings.get().blacklist;
+    }
+
+    /**
+     * Returns the counts of stanzas that were blocked since the blacklist that is currently in use was installed.
+     *
+     * @return Counters of blocked stanzas.
+     */
+    public BlockCounters getBlockCounters()
+    {
+        return settings.get().blockCounters;
+    }
+
+    /**
+     * Returns the amount of stanzas of which the sender was looked up on the blacklist, since this instance was created.
+     *
+     * @return an amount of stanzas.
+     */
+    public long getCheckedCount()
+    {
+        return checked.sum();
+    }
+
+    /**
+     * Returns the amount of stanzas that were rejected, since this instance was created.
+     *
+     * @return an amount of stanzas.
+     */
+    public long getRejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the total time spent on the lookups of senders of stanzas on the blacklist that were timed, since this
+     * instance was created. Only one in {@link #LOOKUP_SAMPLE_INTERVAL} lookups (chosen at random) is timed.
+     *
+     * @return a duration in nanoseconds.
+     * @see #getLookupSamples()
+     */
+    public long getLookupNanos()
+    {
+        return lookupNanos.sum();
+    }
+
+    /**
+     * Returns the amount of lookups of senders of stanzas on the blacklist that were timed, since this instance was
+     * created.
+     *
+     * @return an amount of lookups.
+     * @see #getLookupNanos()
+     */
+    public long getLookupSamples()
+    {
+        return lookupSamples.sum();
+    }
+
+    /**
+     * Returns the histogram of the time it takes to verify a stanza. Durations are only recorded while
+     * {@link #LATENCY_HISTOGRAM_ENABLED} is enabled.
+     *
+     * @return A histogram of durations.
+     */
+    public LatencyHistogram getLatencyHistogram()
+    {
+        return latencyHistogram;
     }
 
     /**
@@ -158,15 +452,42 @@ public class StanzaBlocker implements PacketInterceptor
      */
     public void refreshPropertyValues()
     {
-        rwl.writeLock().lock();
-        try
-        {
-            checkIncoming = CHECK_INCOMING.getValue();
-            checkOutgoing = CHECK_OUTGOING.getValue();
-        }
-        finally
+        final boolean checkIncoming = CHECK_INCOMING.getValue();
+        final boolean checkOutgoing = CHECK_OUTGOING.getValue();
+        final boolean recordLatency = LATENCY_HISTOGRAM_ENABLED.getValue();
+        settings.updateAndGet( current -> new Settings( current.blacklist, checkIncoming, checkOutgoing, recordLatency, current.domainVerdicts, current.blockCounters ) );
+    }
+
+    /**
+     * An immutable snapshot of everything that is used to verify a stanza.
+     */
+    private static final class Settings
+    {
+        private final Blacklist blacklist;
+        private final boolean checkIncoming;
+        private final boolean checkOutgoing;
+        private final boolean recordLatency;
+
+        /**
+         * Verdicts of the blacklist for domains of remote servers that are connected through incoming server-to-server
+         * sessions. A new (empty) cache is created whenever the blacklist is replaced.
+         */
+        private final Map<String, Blacklist.DomainVerdict> domainVerdicts;
+
+        /**
+         * Counts of the stanzas that are blocked by the blacklist. New counters are created whenever the blacklist is
+         * replaced.
+         */
+        private final BlockCounters blockCounters;
+
+        Settings( final Blacklist blacklist, final boolean checkIncoming, final boolean checkOutgoing, final boolean recordLatency, final Map<String, Blacklist.DomainVerdict> domainVerdicts, final BlockCounters blockCounters )
         {
-            rwl.writeLock().unlock();
+            this.blacklist = blacklist;
+            this.checkIncoming = checkIncoming;
+            this.checkOutgoing = checkOutgoing;
+            this.recordLatency = recordLatency;
+            this.domainVerdicts = domainVerdicts;
+            this.blockCounters = blockCounters;
         }
     }
 }
@@ -0,0 +1,170 @@
+<%--
+  - Copyright 2024 Ignite Realtime Foundation
+  -
+  - Licensed under the Apache License, Version 2.0 (the "License");
+  - you may not use this file except in compliance with the License.
+  - You may obtain a copy of the License at
+  -
+  -     http://www.apache.org/licenses/LICENSE-2.0
+  -
+  - Unless required by applicable law or agreed to in writing, software
+  - distributed under the License is distributed on an "AS IS" BASIS,
+  - WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  - See the License for the specific language governing permissions and
+  - limitations under the License.
+--%>
+<%@ page contentType="text/html; charset=UTF-8" %>
+<%@ page import="org.igniterealtime.openfire.plugin.blacklistspam.BlacklistSpamPlugin" %>
+<%@ page import="org.igniterealtime.openfire.plugin.blacklistspam.BlockCounters" %>
+<%@ page import="org.igniterealtime.openfire.plugin.blacklistspam.StanzaBlocker" %>
+<%@ page import="org.jivesoftware.openfire.XMPPServer" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/fmt" prefix="fmt" %>
+<jsp:useBean id="webManager" class="org.jivesoftware.util.WebManager" />
+<% webManager.init(request, response, session, application, out ); %>
+<%
+    final BlacklistSpamPlugin plugin = (BlacklistSpamPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName( "Spam blacklist" ).orElseThrow();
+    final BlockCounters counters = plugin.getStanzaBlocker().getBlockCounters();
+    pageContext.setAttribute( "blacklist", plugin.getStanzaBlocker().getBlacklist() );
+    pageContext.setAttribute( "counters", counters );
+    pageContext.setAttribute( "total", counters.getTotal() );
+    pageContext.setAttribute( "topOffenders", counters.getTopOffenders( 25 ) );
+    pageContext.setAttribute( "sessionGate", plugin.getSessionGate() );
+    pageContext.setAttribute( "nextRefresh", plugin.getNextRefresh() );
+    pageContext.setAttribute( "sources", plugin.getSources() );
+    pageContext.setAttribute( "latencyEnabled", StanzaBlocker.LATENCY_HISTOGRAM_ENABLED.getValue() );
+    pageContext.setAttribute( "latencies", plugin.getStanzaBlocker().getLatencyHistogram().getSummaries() );
+%>
+<html>
+<head>
+    <title><fmt:message key="statistics.title"/></title>
+    <meta name="pageID" content="blacklistspam-statistics"/>
+</head>
+<body>
+
+<p><fmt:message key="statistics.description"/></p>
+
+<div class="jive-contentBoxHeader"><fmt:message key="statistics.summary.header"/></div>
+<div class="jive-contentBox">
+    <table cellpadding="3" cellspacing="0" border="0">
+        <tr>
+            <td><fmt:message key="statistics.summary.entries"/></td>
+            <td><c:out value="${empty blacklist ? '-' : blacklist.size()}"/></td>
+        </tr>
+        <tr>
+            <td><fmt:message key="statistics.summary.since"/></td>
+            <td><c:out value="${counters.since}"/></td>
+        </tr>
+        <tr>
+            <td><fmt:message key="statistics.summary.next-refresh"/></td>
+            <td><c:out value="${empty nextRefresh ? '-' : nextRefresh}"/></td>
+        </tr>
+        <tr>
+            <td><fmt:message key="statistics.summary.blocked"/></td>
+            <td><c:out value="${total}"/></td>
+        </tr>
+        <tr>
+            <td><fmt:message key="statistics.summary.rate"/></td>
+            <td><fmt:formatNumber value="${counters.ratePerMinute}" maxFractionDigits="2"/></td>
+        </tr>
+        <c:if test="${not empty sessionGate}">
+            <tr>
+                <td><fmt:message key="statistics.summary.sessions-rejected"/></td>
+                <td><c:out value="${sessionGate.sessionsRejected}"/></td>
+            </tr>
+        </c:if>
+    </table>
+</div>
+
+<div class="jive-table">
+    <table cellpadding="0" cellspacing="0" border="0" width="100%">
+        <thead>
+        <tr>
+            <th><fmt:message key="statistics.sources.url"/></th>
+            <th><fmt:message key="statistics.sources.entries"/></th>
+            <th><fmt:message key="statistics.sources.last-success"/></th>
+            <th><fmt:message key="statistics.sources.last-failure"/></th>
+            <th><fmt:message key="statistics.sources.failures"/></th>
+        </tr>
+        </thead>
+        <tbody>
+        <c:forEach var="source" items="${sources}" varStatus="status">
+            <tr class="${status.index % 2 == 0 ? 'jive-even' : 'jive-odd'}">
+                <td><c:out value="${source.url}"/></td>
+                <td><c:out value="${source.size < 0 ? '-' : source.size}"/></td>
+                <td><c:out value="${empty source.lastSuccess ? '-' : source.lastSuccess}"/></td>
+                <td><c:out value="${empty source.lastFailure ? '-' : source.lastFailure}"/></td>
+                <td><c:out value="${source.consecutiveFailures}"/></td>
+            </tr>
+        </c:forEach>
+        </tbody>
+    </table>
+</div>
+<br/>
+
+<c:if test="${latencyEnabled}">
+    <div class="jive-table">
+        <table cellpadding="0" cellspacing="0" border="0" width="100%">
+            <thead>
+            <tr>
+                <th><fmt:message key="statistics.latency.outcome"/></th>
+                <th><fmt:message key="statistics.latency.count"/></th>
+                <th><fmt:message key="statistics.latency.p50"/></th>
+                <th><fmt:message key="statistics.latency.p99"/></th>
+                <th><fmt:message key="statistics.latency.p999"/></th>
+            </tr>
+            </thead>
+            <tbody>
+            <c:forEach var="latency" items="${latencies}" varStatus="status">
+                <tr class="${status.index % 2 == 0 ? 'jive-even' : 'jive-odd'}">
+                    <td><fmt:message key="statistics.latency.outcome.${latency.outcome}"/></td>
+                    <td><c:out value="${latency.count}"/></td>
+                    <td><fmt:formatNumber value="${latency.p50}" maxFractionDigits="1"/></td>
+                    <td><fmt:formatNumber value="${latency.p99}" maxFractionDigits="1"/></td>
+                    <td><fmt:formatNumber value="${latency.p999}" maxFractionDigits="1"/></td>
+                </tr>
+            </c:forEach>
+            </tbody>
+        </table>
+    </div>
+    <br/>
+</c:if>
+
+<div class="jive-table">
+    <table cellpadding="0" cellspacing="0" border="0" width="100%">
+        <thead>
+        <tr>
+            <th><fmt:message key="statistics.offenders.entry"/></th>
+            <th><fmt:message key="statistics.offenders.blocked"/></th>
+            <th><fmt:message key="statistics.offenders.share"/></th>
+            <th><fmt:message key="statistics.offenders.rate"/></th>
+        </tr>
+        </thead>
+        <tbody>
+        <c:if test="${empty topOffenders}">
+            <tr>
+                <td colspan="4" align="center"><fmt:message key="statistics.offenders.none"/></td>
+            </tr>
+        </c:if>
+        <c:forEach var="offender" items="${topOffenders}" varStatus="status">
+            <tr class="${status.index % 2 == 0 ? 'jive-even' : 'jive-odd'}">
+                <td><c:out value="${offender.entry}"/></td>
+                <td><c:out value="${offender.count}"/></td>
+                <td><fmt:formatNumber value="${offender.count / total}" type="percent" maxFractionDigits="1"/></td>
+                <td><fmt:formatNumber value="${offender.ratePerMinute}" maxFractionDigits="2"/></td>
+            </tr>
+        </c:forEach>
+        <c:if test="${counters.others > 0}">
+            <tr>
+                <td><i><fmt:message key="statistics.offenders.others"/></i></td>
+                <td><c:out value="${counters.others}"/></td>
+                <td><fmt:formatNumber value="${counters.others / total}" type="percent" maxFractionDigits="1"/></td>
+                <td></td>
+            </tr>
+        </c:if>
+        </tbody>
+    </table>
+</div>
+
+</body>
+</html>
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that changes to a blacklist are applied to the blacklist that they were made to, without affecting it.
+ */
+public class BlacklistDeltaTest
+{
+    private static final String BASE = "#version 1\nspam.example\nuser@bad.example\n";
+
+    private HttpServer server;
+
+    @BeforeAll
+    public static void setUpClass()
+    {
+        TestFixtures.configureOpenfireHome();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        server.createContext( "/base", exchange -> respond( exchange, BASE ) );
+        server.createContext( "/base-large", exchange -> respond( exchange, BASE + hosts( 100 ) ) );
+        server.createContext( "/delta", exchange -> respond( exchange, "#delta 1\n#version 2\n+new.example\n+*.wildcard.example\n-spam.example\n" ) );
+        server.createContext( "/delta-absent", exchange -> respond( exchange, "#delta 1\n#version 2\n-absent.example\n-other@bad.example\n" ) );
+        server.createContext( "/delta-mismatch", exchange -> respond( exchange, "#delta 5\n#version 6\n+new.example\n" ) );
+        server.createContext( "/delta-many", exchange -> respond( exchange, "#delta 1\n#version 2\n" + hosts( 100 ).replace( "host", "+host" ) ) );
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        server.stop( 0 );
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception
+    {
+        final Blacklist base = BlacklistFactory.fromURL( url( "/base" ) );
+        assertNotNull( base );
+
+        final Blacklist result = BlacklistFactory.fromDeltaURL( url( "/delta" ), base );
+
+        assertNotNull( result );
+        assertEquals( 2, result.getVersion() );
+        assertEquals( 3, result.size() );
+        assertTrue( result.isOnBlacklist( null, "new.example", null ) );
+        assertTrue( result.isOnBlacklist( null, "sub.wildcard.example", null ) );
+        assertTrue( result.isOnBlacklist( "user", "bad.example", null ) );
+        assertFalse( result.isOnBlacklist( null, "spam.example", null ) );
+        assertEquals( base.getSource(), result.getSource() );
+        assertEquals( 3, result.getChangesSinceIndexed() );
+
+        // The blacklist that the changes were applied to is unaffected.
+        assertEquals( 1, base.getVersion() );
+        assertEquals( 2, base.size() );
+        assertTrue( base.isOnBlacklist( null, "spam.example", null ) );
+        assertFalse( base.isOnBlacklist( null, "new.example", null ) );
+        assertFalse( base.isOnBlacklist( null, "sub.wildcard.example", null ) );
+    }
+
+    @Test
+    public void testRemovalOfAbsentEntry() throws Exception
+    {
+        final Blacklist base = BlacklistFactory.fromURL( url( "/base" ) );
+        assertNotNull( base );
+
+        final Blacklist result = BlacklistFactory.fromDeltaURL( url( "/delta-absent" ), base );
+
+        assertNotNull( result );
+        assertEquals( 2, result.getVersion() );
+        assertEquals( 2, result.size() );
+        assertTrue( result.isOnBlacklist( null, "spam.example", null ) );
+        assertTrue( result.isOnBlacklist( "user", "bad.example", null ) );
+    }
+
+    @Test
+    public void testVersionMismatch() throws Exception
+    {
+        final Blacklist base = BlacklistFactory.fromURL( url( "/base" ) );
+        assertNotNull( base );
+
+        assertNull( BlacklistFactory.fromDeltaURL( url( "/delta-mismatch" ), base ) );
+    }
+
+    @Test
+    public void testFilterIsExtended() throws Exception
+    {
+        // Large enough for the filter to include the additions without exceeding its capacity.
+        final Blacklist base = BlacklistFactory.fromURL( url( "/base-large" ) );
+        assertNotNull( base );
+        final Blacklist filtered = base.withFilter( 0.01 );
+
+        final Blacklist result = BlacklistFactory.fromDeltaURL( url( "/delta" ), filtered );
+
+        assertNotNull( result );
+        assertTrue( result.hasFilter() );
+        assertTrue( result.isOnBlacklist( null, "new.example", null ) );
+        assertTrue( result.isOnBlacklist( null, "sub.wildcard.example", null ) );
+        assertTrue( result.isOnBlacklist( "user", "bad.example", null ) );
+        assertFalse( result.isOnBlacklist( null, "spam.example", null ) );
+        assertTrue( filtered.isOnBlacklist( null, "spam.example", null ) );
+    }
+
+    @Test
+    public void testOverloadedFilterIsDropped() throws Exception
+    {
+        final Blacklist base = BlacklistFactory.fromURL( url( "/base" ) );
+        assertNotNull( base );
+
+        final Blacklist result = BlacklistFactory.fromDeltaURL( url( "/delta-many" ), base.withFilter( 0.01 ) );
+
+        assertNotNull( result );
+        assertFalse( result.hasFilter() );
+        assertEquals( 102, result.size() );
+        assertTrue( result.isOnBlacklist( null, "host99.example", null ) );
+    }
+
+    private static String hosts( final int amount )
+    {
+        final StringBuilder result = new StringBuilder();
+        for ( int i = 0; i < amount; i++ )
+        {
+            result.append( "host" ).append( i ).append( ".example\n" );
+        }
+        return result.toString();
+    }
+
+    private URL url( final String path ) throws Exception
+    {
+        return new URL( "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path );
+    }
+
+    private static void respond( final HttpExchange exchange, final String content ) throws IOException
+    {
+        final byte[] body = content.getBytes( StandardCharsets.UTF_8 );
+        exchange.sendResponseHeaders( 200, body.length );
+        try ( final OutputStream out = exchange.getResponseBody() )
+        {
+            out.write( body );
+        }
+    }
+}
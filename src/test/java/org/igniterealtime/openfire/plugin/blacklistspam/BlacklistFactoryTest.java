@@ -0,0 +1,212 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that {@link BlacklistFactory} obtains blacklists over HTTP, in every form in which a server can send them.
+ */
+public class BlacklistFactoryTest
+{
+    private static final String CONTENT = "spam.example\nuser@bad.example\n*.wildcard.example\n";
+
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+
+    @BeforeAll
+    public static void setUpClass()
+    {
+        TestFixtures.configureOpenfireHome();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        final byte[] content = CONTENT.getBytes( StandardCharsets.UTF_8 );
+
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        server.createContext( "/plain", exchange -> respond( exchange, null, content ) );
+        server.createContext( "/gzip", exchange -> respond( exchange, "gzip", gzip( content ) ) );
+        server.createContext( "/x-gzip", exchange -> respond( exchange, "x-gzip", gzip( content ) ) );
+        server.createContext( "/deflate-zlib", exchange -> respond( exchange, "deflate", deflate( content, false ) ) );
+        server.createContext( "/deflate-raw", exchange -> respond( exchange, "deflate", deflate( content, true ) ) );
+        server.createContext( "/list.txt.gz", exchange -> respond( exchange, null, gzip( content ) ) );
+        server.createContext( "/unknown", exchange -> respond( exchange, "br", content ) );
+        server.createContext( "/error-gzip", exchange -> {
+            exchange.getResponseHeaders().set( "Content-Encoding", "gzip" );
+            final byte[] body = gzip( "Service unavailable".getBytes( StandardCharsets.UTF_8 ) );
+            exchange.sendResponseHeaders( 503, body.length );
+            try ( final OutputStream out = exchange.getResponseBody() )
+            {
+                out.write( body );
+            }
+        } );
+        server.createContext( "/error-empty", exchange -> {
+            exchange.sendResponseHeaders( 500, -1 );
+            exchange.close();
+        } );
+        server.createContext( "/conditional", exchange -> {
+            if ( ETAG.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) )
+            {
+                exchange.sendResponseHeaders( 304, -1 );
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set( "ETag", ETAG );
+            respond( exchange, null, content );
+        } );
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        server.stop( 0 );
+    }
+
+    @Test
+    public void testPlain() throws Exception
+    {
+        assertContent( BlacklistFactory.fromURL( url( "/plain" ) ) );
+    }
+
+    @Test
+    public void testGzip() throws Exception
+    {
+        assertContent( BlacklistFactory.fromURL( url( "/gzip" ) ) );
+    }
+
+    @Test
+    public void testXGzip() throws Exception
+    {
+        assertContent( BlacklistFactory.fromURL( url( "/x-gzip" ) ) );
+    }
+
+    @Test
+    public void testZlibWrappedDeflate() throws Exception
+    {
+        assertContent( BlacklistFactory.fromURL( url( "/deflate-zlib" ) ) );
+    }
+
+    @Test
+    public void testRawDeflate() throws Exception
+    {
+        assertContent( BlacklistFactory.fromURL( url( "/deflate-raw" ) ) );
+    }
+
+    @Test
+    public void testGzipResource() throws Exception
+    {
+        assertContent( BlacklistFactory.fromURL( url( "/list.txt.gz" ) ) );
+    }
+
+    @Test
+    public void testUnknownContentEncoding() throws Exception
+    {
+        final BufferedInputStream in = new BufferedInputStream( new ByteArrayInputStream( CONTENT.getBytes( StandardCharsets.UTF_8 ) ) );
+        assertThrows( IOException.class, () -> BlacklistFactory.decode( in, "br" ) );
+        assertNull( BlacklistFactory.fromURL( url( "/unknown" ) ) );
+    }
+
+    @Test
+    public void testErrorResponses() throws Exception
+    {
+        assertNull( BlacklistFactory.fromURL( url( "/error-gzip" ) ) );
+        assertNull( BlacklistFactory.fromURL( url( "/error-empty" ) ) );
+    }
+
+    @Test
+    public void testNotModified() throws Exception
+    {
+        final URL url = url( "/conditional" );
+        final Blacklist previous = BlacklistFactory.fromURL( url );
+        assertContent( previous );
+        assertEquals( ETAG, previous.getETag() );
+
+        assertSame( previous, BlacklistFactory.fromURL( url, previous ) );
+    }
+
+    private URL url( final String path ) throws Exception
+    {
+        return new URL( "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path );
+    }
+
+    private static void assertContent( final Blacklist blacklist )
+    {
+        assertNotNull( blacklist );
+        assertEquals( 3, blacklist.size() );
+        assertTrue( blacklist.isOnBlacklist( null, "spam.example", null ) );
+        assertTrue( blacklist.isOnBlacklist( "user", "bad.example", null ) );
+        assertTrue( blacklist.isOnBlacklist( null, "sub.wildcard.example", null ) );
+        assertFalse( blacklist.isOnBlacklist( null, "good.example", null ) );
+    }
+
+    private static void respond( final HttpExchange exchange, final String contentEncoding, final byte[] body ) throws IOException
+    {
+        if ( contentEncoding != null )
+        {
+            exchange.getResponseHeaders().set( "Content-Encoding", contentEncoding );
+        }
+        exchange.sendResponseHeaders( 200, body.length );
+        try ( final OutputStream out = exchange.getResponseBody() )
+        {
+            out.write( body );
+        }
+    }
+
+    private static byte[] gzip( final byte[] content ) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( final GZIPOutputStream out = new GZIPOutputStream( bytes ) )
+        {
+            out.write( content );
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate( final byte[] content, final boolean raw ) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( final DeflaterOutputStream out = new DeflaterOutputStream( bytes, new Deflater( Deflater.DEFAULT_COMPRESSION, raw ) ) )
+        {
+            out.write( content );
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that a blacklist is restored from its serialized form with all of its entries and properties.
+ */
+public class BlacklistSnapshotTest
+{
+    private static final String SOURCE = "https://example.org/blacklist.txt";
+
+    private static final String OTHER_SOURCE = "https://example.com/blacklist.txt";
+
+    private static final String ETAG = "\"v1\"";
+
+    private static final String LAST_MODIFIED = "Mon, 01 Jan 2024 00:00:00 GMT";
+
+    @BeforeAll
+    public static void setUpClass()
+    {
+        TestFixtures.configureOpenfireHome();
+    }
+
+    /**
+     * Creates a blacklist with an entry of every kind, and with every property that is serialized.
+     */
+    static Blacklist createBlacklist()
+    {
+        final List<JID> jids = Arrays.asList( new JID( "spam.example" ), new JID( "user@bad.example" ), new JID( "user@bad.example/home" ) );
+        return new Blacklist( jids, Collections.singletonList( "wildcard.example" ) )
+            .withValidators( SOURCE, ETAG, LAST_MODIFIED )
+            .withVersion( 42 );
+    }
+
+    @Test
+    public void testEntries()
+    {
+        final Blacklist result = BlacklistSnapshot.fromBytes( BlacklistSnapshot.toBytes( createBlacklist() ) );
+
+        assertNotNull( result );
+        assertEquals( 4, result.size() );
+        assertTrue( result.isOnBlacklist( null, "spam.example", null ) );
+        assertTrue( result.isOnBlacklist( "other", "spam.example", "resource" ) );
+        assertTrue( result.isOnBlacklist( "user", "bad.example", null ) );
+        assertTrue( result.isOnBlacklist( "user", "bad.example", "home" ) );
+        assertFalse( result.isOnBlacklist( "other", "bad.example", null ) );
+        assertFalse( result.isOnBlacklist( null, "bad.example", null ) );
+    }
+
+    @Test
+    public void testWildcards()
+    {
+        final Blacklist result = BlacklistSnapshot.fromBytes( BlacklistSnapshot.toBytes( createBlacklist() ) );
+
+        assertNotNull( result );
+        assertTrue( result.isOnBlacklist( null, "sub.wildcard.example", null ) );
+        assertTrue( result.isOnBlacklist( "user", "deeper.sub.wildcard.example", null ) );
+        assertFalse( result.isOnBlacklist( null, "otherwildcard.example", null ) );
+    }
+
+    @Test
+    public void testVersionAndValidators()
+    {
+        final Blacklist result = BlacklistSnapshot.fromBytes( BlacklistSnapshot.toBytes( createBlacklist() ) );
+
+        assertNotNull( result );
+        assertEquals( SOURCE, result.getSource() );
+        assertEquals( ETAG, result.getETag() );
+        assertEquals( LAST_MODIFIED, result.getLastModified() );
+        assertEquals( 42, result.getVersion() );
+    }
+
+    @Test
+    public void testAbsentValidators()
+    {
+        final Blacklist blacklist = new Blacklist( Collections.singletonList( new JID( "spam.example" ) ) );
+
+        final Blacklist result = BlacklistSnapshot.fromBytes( BlacklistSnapshot.toBytes( blacklist ) );
+
+        assertNotNull( result );
+        assertNull( result.getSource() );
+        assertNull( result.getETag() );
+        assertNull( result.getLastModified() );
+        assertEquals( Blacklist.UNKNOWN_VERSION, result.getVersion() );
+    }
+
+    @Test
+    public void testSources()
+    {
+        final Blacklist first = new Blacklist( Arrays.asList( new JID( "spam.example" ), new JID( "both.example" ) ) ).withValidators( SOURCE, null, null );
+        final Blacklist second = new Blacklist( Collections.singletonList( new JID( "both.example" ) ), Collections.singletonList( "wildcard.example" ) ).withValidators( OTHER_SOURCE, null, null );
+        final Blacklist merged = BlacklistFactory.merge( Arrays.asList( first, second ) );
+
+        final Blacklist result = BlacklistSnapshot.fromBytes( BlacklistSnapshot.toBytes( merged ) );
+
+        assertNotNull( result );
+        assertEquals( Arrays.asList( SOURCE, OTHER_SOURCE ), result.getMergedSources() );
+        assertEquals( Collections.singletonList( SOURCE ), result.getMatchingSources( null, "spam.example", null ) );
+        assertEquals( Arrays.asList( SOURCE, OTHER_SOURCE ), result.getMatchingSources( null, "both.example", null ) );
+        assertEquals( Collections.singletonList( OTHER_SOURCE ), result.getMatchingSources( null, "sub.wildcard.example", null ) );
+        assertEquals( Collections.emptyList(), result.getMatchingSources( null, "good.example", null ) );
+    }
+
+    @Test
+    public void testInvalidData()
+    {
+        assertNull( BlacklistSnapshot.fromBytes( new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 } ) );
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jivesoftware.util.cache.ClusterTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that in a cluster, the blacklist is retrieved by the senior member only, and installed by all members.
+ * Two members are run in this process, each refreshing the blacklist as if its refresh interval elapsed.
+ */
+public class ClusteredRefreshTest
+{
+    private static final byte[] SENIOR_ID = { 1 };
+
+    private static final byte[] FOLLOWER_ID = { 2 };
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String content = "spam.example\n";
+    private String previousUrl;
+
+    private LocalCluster localCluster;
+    private BlacklistSpamPlugin senior;
+    private BlacklistSpamPlugin follower;
+
+    @BeforeAll
+    public static void setUpClass()
+    {
+        TestFixtures.configureOpenfireHome();
+        TestFixtures.enableSystemProperties();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception
+    {
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        server.createContext( "/blacklist.txt", exchange -> {
+            requests.incrementAndGet();
+            final byte[] body = content.getBytes( StandardCharsets.UTF_8 );
+            exchange.sendResponseHeaders( 200, body.length );
+            try ( final OutputStream out = exchange.getResponseBody() )
+            {
+                out.write( body );
+            }
+        } );
+        server.start();
+
+        previousUrl = BlacklistSpamPlugin.CONNECTION_CONNECT_REQUEST_URL.getValue();
+        BlacklistSpamPlugin.CONNECTION_CONNECT_REQUEST_URL.setValue( "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/blacklist.txt" );
+
+        localCluster = new LocalCluster();
+        senior = localCluster.join( SENIOR_ID );
+        follower = localCluster.join( FOLLOWER_ID );
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        senior.stop();
+        follower.stop();
+        BlacklistSpamPlugin.CONNECTION_CONNECT_REQUEST_URL.setValue( previousUrl );
+        server.stop( 0 );
+    }
+
+    @Test
+    public void testOneRequestPerInterval() throws Exception
+    {
+        assertTrue( senior.refresh() );
+        assertTrue( follower.refresh() );
+
+        assertEquals( 1, requests.get() );
+        awaitBlocked( follower, "spam.example" );
+        assertTrue( senior.getStanzaBlocker().getBlacklist().isOnBlacklist( null, "spam.example", null ) );
+
+        content = "spam.example\nother.example\n";
+        assertTrue( follower.refresh() );
+        assertTrue( senior.refresh() );
+
+        assertEquals( 2, requests.get() );
+        awaitBlocked( follower, "other.example" );
+        assertTrue( senior.getStanzaBlocker().getBlacklist().isOnBlacklist( null, "other.example", null ) );
+    }
+
+    @Test
+    public void testJoiningMemberReceivesBlacklist() throws Exception
+    {
+        assertTrue( senior.refresh() );
+        awaitBlocked( follower, "spam.example" );
+
+        final BlacklistSpamPlugin joined = localCluster.join( new byte[] { 3 } );
+        try
+        {
+            senior.joinedCluster( new byte[] { 3 } );
+
+            awaitBlocked( joined, "spam.example" );
+            assertTrue( joined.refresh() );
+            assertEquals( 1, requests.get() );
+        }
+        finally
+        {
+            joined.stop();
+        }
+    }
+
+    /**
+     * Waits until a member of the cluster installed a blacklist that contains a domain. Members install blacklists
+     * that they receive from the cluster asynchronously.
+     */
+    private static void awaitBlocked( final BlacklistSpamPlugin member, final String domain ) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while ( true )
+        {
+            final Blacklist blacklist = member.getStanzaBlocker().getBlacklist();
+            if ( blacklist != null && blacklist.isOnBlacklist( null, domain, null ) )
+            {
+                return;
+            }
+            if ( System.currentTimeMillis() > deadline )
+            {
+                fail( "The blacklist that was installed does not contain " + domain + "." );
+            }
+            Thread.sleep( 10 );
+        }
+    }
+
+    /**
+     * A cluster of plugins in this process, of which the first member to join is the senior member. Tasks are
+     * serialized before they are delivered, like they are when they are sent to another node.
+     */
+    private static final class LocalCluster
+    {
+        private final Map<String, BlacklistSpamPlugin> members = new LinkedHashMap<>();
+
+        synchronized BlacklistSpamPlugin join( final byte[] nodeID )
+        {
+            final boolean senior = members.isEmpty();
+            final String id = Arrays.toString( nodeID );
+            final BlacklistSpamPlugin plugin = new BlacklistSpamPlugin( new BlacklistCluster()
+            {
+                @Override
+                public boolean isStarted()
+                {
+                    return true;
+                }
+
+                @Override
+                public boolean isSeniorMember()
+                {
+                    return senior;
+                }
+
+                @Override
+                public void sendToOthers( final ClusterTask<?> task )
+                {
+                    for ( final Map.Entry<String, BlacklistSpamPlugin> member : members() )
+                    {
+                        if ( !member.getKey().equals( id ) )
+                        {
+                            deliver( task, member.getValue() );
+                        }
+                    }
+                }
+
+                @Override
+                public void sendTo( final ClusterTask<?> task, final byte[] target )
+                {
+                    for ( final Map.Entry<String, BlacklistSpamPlugin> member : members() )
+                    {
+                        if ( member.getKey().equals( Arrays.toString( target ) ) )
+                        {
+                            deliver( task, member.getValue() );
+                        }
+                    }
+                }
+            } );
+            plugin.start();
+            members.put( id, plugin );
+            return plugin;
+        }
+
+        private synchronized List<Map.Entry<String, BlacklistSpamPlugin>> members()
+        {
+            return new ArrayList<>( members.entrySet() );
+        }
+
+        private static void deliver( final ClusterTask<?> task, final BlacklistSpamPlugin member )
+        {
+            try
+            {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try ( final ObjectOutputStream out = new ObjectOutputStream( bytes ) )
+                {
+                    task.writeExternal( out );
+                }
+                final InstallBlacklistTask received = new InstallBlacklistTask();
+                try ( final ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+                {
+                    received.readExternal( in );
+                }
+                // Rather than having the task look up the plugin that is loaded by Openfire.
+                member.installFromCluster( received.getSnapshot() );
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+        }
+    }
+}
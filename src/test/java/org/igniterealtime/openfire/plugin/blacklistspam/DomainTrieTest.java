@@ -0,0 +1,226 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies how entries of every kind in a {@link DomainTrie} match JIDs.
+ */
+public class DomainTrieTest
+{
+    @Test
+    public void testWildcardMatchesSubdomainsOnly()
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.addWildcard( "x.example" );
+
+        assertTrue( trie.contains( null, "a.x.example", null ) );
+        assertTrue( trie.contains( "user", "a.b.x.example", "resource" ) );
+        assertFalse( trie.contains( null, "x.example", null ) );
+        assertFalse( trie.contains( null, "ax.example", null ) );
+        assertFalse( trie.contains( null, "example", null ) );
+        assertEquals( "*.x.example", trie.getMatchingEntry( null, "a.b.x.example", null ) );
+        assertNull( trie.getMatchingEntry( null, "x.example", null ) );
+    }
+
+    @Test
+    public void testDomainMatchesAllJidsOfDomain()
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( null, "spam.example", null );
+
+        assertTrue( trie.contains( null, "spam.example", null ) );
+        assertTrue( trie.contains( "user", "spam.example", "resource" ) );
+        assertFalse( trie.contains( null, "sub.spam.example", null ) );
+        assertFalse( trie.contains( null, "example", null ) );
+        assertEquals( "spam.example", trie.getMatchingEntry( "user", "spam.example", "resource" ) );
+    }
+
+    @Test
+    public void testParentDomainDoesNotMatchSubdomain()
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( null, "example", null );
+
+        assertTrue( trie.contains( null, "example", null ) );
+        assertFalse( trie.contains( null, "spam.example", null ) );
+    }
+
+    @Test
+    public void testBareJid()
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( "user", "bad.example", null );
+
+        assertTrue( trie.contains( "user", "bad.example", null ) );
+        assertTrue( trie.contains( "user", "bad.example", "resource" ) );
+        assertFalse( trie.contains( null, "bad.example", null ) );
+        assertFalse( trie.contains( "other", "bad.example", null ) );
+        assertFalse( trie.contains( "user", "sub.bad.example", null ) );
+        assertEquals( "user@bad.example", trie.getMatchingEntry( "user", "bad.example", "resource" ) );
+    }
+
+    @Test
+    public void testFullJid()
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( "user", "bad.example", "home" );
+        trie.add( null, "server.example", "home" );
+
+        assertTrue( trie.contains( "user", "bad.example", "home" ) );
+        assertFalse( trie.contains( "user", "bad.example", "work" ) );
+        assertFalse( trie.contains( "user", "bad.example", null ) );
+        assertTrue( trie.contains( null, "server.example", "home" ) );
+        assertFalse( trie.contains( "user", "server.example", "home" ) );
+        assertEquals( "user@bad.example/home", trie.getMatchingEntry( "user", "bad.example", "home" ) );
+        assertEquals( "server.example/home", trie.getMatchingEntry( null, "server.example", "home" ) );
+    }
+
+    @Test
+    public void testDomainVerdict()
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( null, "spam.example", null );
+        trie.addWildcard( "wildcard.example" );
+        trie.add( "user", "bad.example", null );
+
+        assertEquals( Blacklist.DomainVerdict.BLOCKED, trie.getDomainVerdict( "spam.example" ) );
+        assertEquals( Blacklist.DomainVerdict.BLOCKED, trie.getDomainVerdict( "sub.wildcard.example" ) );
+        assertEquals( Blacklist.DomainVerdict.PARTIAL, trie.getDomainVerdict( "bad.example" ) );
+        assertEquals( Blacklist.DomainVerdict.CLEAR, trie.getDomainVerdict( "wildcard.example" ) );
+        assertEquals( Blacklist.DomainVerdict.CLEAR, trie.getDomainVerdict( "good.example" ) );
+    }
+
+    @Test
+    public void testAddAndRemove()
+    {
+        final DomainTrie trie = new DomainTrie();
+        assertTrue( trie.add( null, "spam.example", null ) );
+        assertFalse( trie.add( null, "spam.example", null ) );
+        assertTrue( trie.add( "user", "spam.example", null ) );
+        assertTrue( trie.addWildcard( "spam.example" ) );
+        assertFalse( trie.addWildcard( "spam.example" ) );
+        assertEquals( 3, trie.size() );
+
+        assertTrue( trie.remove( null, "spam.example", null ) );
+        assertFalse( trie.remove( null, "spam.example", null ) );
+        assertFalse( trie.remove( null, "absent.example", null ) );
+        assertTrue( trie.removeWildcard( "spam.example" ) );
+        assertFalse( trie.removeWildcard( "spam.example" ) );
+        assertEquals( 1, trie.size() );
+
+        assertFalse( trie.contains( null, "spam.example", null ) );
+        assertFalse( trie.contains( null, "sub.spam.example", null ) );
+        assertTrue( trie.contains( "user", "spam.example", null ) );
+    }
+
+    @Test
+    public void testForkIsIndependent()
+    {
+        final DomainTrie original = new DomainTrie();
+        original.add( null, "spam.example", null );
+        original.add( "user", "bad.example", null );
+
+        final DomainTrie fork = original.fork();
+        fork.remove( null, "spam.example", null );
+        fork.add( null, "new.example", null );
+        original.add( null, "other.example", null );
+
+        assertTrue( original.contains( null, "spam.example", null ) );
+        assertFalse( original.contains( null, "new.example", null ) );
+        assertTrue( original.contains( null, "other.example", null ) );
+        assertEquals( 3, original.size() );
+
+        assertFalse( fork.contains( null, "spam.example", null ) );
+        assertTrue( fork.contains( null, "new.example", null ) );
+        assertFalse( fork.contains( null, "other.example", null ) );
+        assertTrue( fork.contains( "user", "bad.example", null ) );
+        assertEquals( 2, fork.size() );
+    }
+
+    @Test
+    public void testMergeRecordsSources()
+    {
+        final DomainTrie first = new DomainTrie();
+        first.add( null, "spam.example", null );
+        first.add( null, "both.example", null );
+        final DomainTrie second = new DomainTrie();
+        second.add( null, "both.example", null );
+        second.addWildcard( "wildcard.example" );
+
+        final DomainTrie merged = DomainTrie.merge( Arrays.asList( first, second ) );
+
+        assertEquals( 3, merged.size() );
+        assertEquals( 1, merged.getSources( null, "spam.example", null ) );
+        assertEquals( 3, merged.getSources( null, "both.example", null ) );
+        assertEquals( 2, merged.getSources( null, "sub.wildcard.example", null ) );
+        assertEquals( 0, merged.getSources( null, "good.example", null ) );
+    }
+
+    @Test
+    public void testForEachEntry()
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( null, "spam.example", null );
+        trie.add( "user", "bad.example", null );
+        trie.add( "user", "bad.example", "home" );
+        trie.add( null, "server.example", "home" );
+        trie.addWildcard( "wildcard.example" );
+
+        final Set<String> entries = new HashSet<>();
+        trie.forEachEntry( entries::add );
+
+        assertEquals( new HashSet<>( Arrays.asList( "spam.example", "user@bad.example", "user@bad.example/home", "server.example/home", "*.wildcard.example" ) ), entries );
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( null, "spam.example", null );
+        trie.add( "user", "bad.example", "home" );
+        trie.addWildcard( "wildcard.example" );
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( final DataOutputStream out = new DataOutputStream( bytes ) )
+        {
+            trie.writeTo( out );
+        }
+        final DomainTrie result;
+        try ( final DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+        {
+            result = DomainTrie.readFrom( in, true );
+        }
+
+        assertEquals( 3, result.size() );
+        assertTrue( result.contains( null, "spam.example", null ) );
+        assertTrue( result.contains( "user", "bad.example", "home" ) );
+        assertTrue( result.contains( null, "sub.wildcard.example", null ) );
+        assertFalse( result.contains( "user", "bad.example", null ) );
+    }
+}
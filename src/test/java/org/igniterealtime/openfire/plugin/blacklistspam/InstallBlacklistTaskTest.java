@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that a blacklist survives being sent to another cluster node.
+ */
+public class InstallBlacklistTaskTest
+{
+    @BeforeAll
+    public static void setUpClass()
+    {
+        TestFixtures.configureOpenfireHome();
+    }
+
+    @Test
+    public void testExternalization() throws Exception
+    {
+        final Blacklist blacklist = BlacklistSnapshotTest.createBlacklist();
+        final InstallBlacklistTask task = new InstallBlacklistTask( BlacklistSnapshot.toBytes( blacklist ) );
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( final ObjectOutputStream out = new ObjectOutputStream( bytes ) )
+        {
+            task.writeExternal( out );
+        }
+        final InstallBlacklistTask result = new InstallBlacklistTask();
+        try ( final ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) )
+        {
+            result.readExternal( in );
+        }
+
+        assertArrayEquals( task.getSnapshot(), result.getSnapshot() );
+
+        final Blacklist installed = BlacklistSnapshot.fromBytes( result.getSnapshot() );
+        assertNotNull( installed );
+        assertEquals( blacklist.size(), installed.size() );
+        assertTrue( installed.isOnBlacklist( "user", "bad.example", "home" ) );
+        assertTrue( installed.isOnBlacklist( null, "sub.wildcard.example", null ) );
+        assertEquals( blacklist.getSource(), installed.getSource() );
+        assertEquals( blacklist.getETag(), installed.getETag() );
+        assertEquals( blacklist.getLastModified(), installed.getLastModified() );
+        assertEquals( blacklist.getVersion(), installed.getVersion() );
+    }
+}
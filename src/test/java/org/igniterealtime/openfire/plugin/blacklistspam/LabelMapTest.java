@@ -0,0 +1,170 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that a {@link LabelMap} holds its entries, and that updates made with another token leave it unchanged.
+ */
+public class LabelMapTest
+{
+    private static final int ENTRIES = 5000;
+
+    @Test
+    public void testPutAndGet()
+    {
+        final Object edit = new Object();
+        LabelMap<Integer> map = LabelMap.of( edit, "label0", 0 );
+        for ( int i = 1; i < ENTRIES; i++ )
+        {
+            map = map.put( edit, "label" + i, i );
+        }
+
+        for ( int i = 0; i < ENTRIES; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), get( map, "label" + i ) );
+        }
+        assertNull( get( map, "absent" ) );
+        assertEquals( ENTRIES, count( map ) );
+    }
+
+    @Test
+    public void testGetRegionOfString()
+    {
+        final LabelMap<String> map = LabelMap.of( new Object(), "example", "value" );
+        final String domain = "sub.example.org";
+
+        assertEquals( "value", map.get( domain, 4, 11, LabelMap.hash( domain, 4, 11 ) ) );
+        assertNull( map.get( domain, 0, 3, LabelMap.hash( domain, 0, 3 ) ) );
+    }
+
+    @Test
+    public void testReplace()
+    {
+        final Object edit = new Object();
+        final LabelMap<String> map = LabelMap.of( edit, "label", "first" ).put( edit, "label", "second" );
+
+        assertEquals( "second", get( map, "label" ) );
+        assertEquals( 1, count( map ) );
+    }
+
+    @Test
+    public void testRemove()
+    {
+        final Object edit = new Object();
+        LabelMap<Integer> map = LabelMap.of( edit, "label0", 0 );
+        for ( int i = 1; i < ENTRIES; i++ )
+        {
+            map = map.put( edit, "label" + i, i );
+        }
+        for ( int i = 0; i < ENTRIES; i += 2 )
+        {
+            map = map.remove( edit, "label" + i );
+        }
+
+        for ( int i = 0; i < ENTRIES; i++ )
+        {
+            assertEquals( i % 2 == 0 ? null : Integer.valueOf( i ), get( map, "label" + i ) );
+        }
+        assertEquals( ENTRIES / 2, count( map ) );
+        assertSame( map, map.remove( edit, "absent" ) );
+    }
+
+    @Test
+    public void testRemoveLastEntry()
+    {
+        final Object edit = new Object();
+        assertNull( LabelMap.of( edit, "label", 1 ).remove( edit, "label" ) );
+    }
+
+    @Test
+    public void testUpdatesWithOtherTokenLeaveMapUnchanged()
+    {
+        final Object edit = new Object();
+        LabelMap<Integer> original = LabelMap.of( edit, "label0", 0 );
+        for ( int i = 1; i < ENTRIES; i++ )
+        {
+            original = original.put( edit, "label" + i, i );
+        }
+
+        final Object otherEdit = new Object();
+        LabelMap<Integer> updated = original.put( otherEdit, "added", -1 );
+        updated = updated.put( otherEdit, "label1", -1 );
+        updated = updated.remove( otherEdit, "label2" );
+
+        assertNotSame( original, updated );
+        assertNull( get( original, "added" ) );
+        assertEquals( Integer.valueOf( 1 ), get( original, "label1" ) );
+        assertEquals( Integer.valueOf( 2 ), get( original, "label2" ) );
+        assertEquals( ENTRIES, count( original ) );
+
+        assertEquals( Integer.valueOf( -1 ), get( updated, "added" ) );
+        assertEquals( Integer.valueOf( -1 ), get( updated, "label1" ) );
+        assertNull( get( updated, "label2" ) );
+        assertEquals( ENTRIES, count( updated ) );
+    }
+
+    @Test
+    public void testLabelsWithEqualHashes()
+    {
+        // Find two labels of which all hash bits are equal, which end up in a collision node.
+        final Map<Integer, String> labels = new HashMap<>();
+        String first = null;
+        String second = null;
+        for ( int i = 0; second == null; i++ )
+        {
+            final String label = "l" + i;
+            final String previous = labels.putIfAbsent( LabelMap.hash( label, 0, label.length() ), label );
+            if ( previous != null )
+            {
+                first = previous;
+                second = label;
+            }
+        }
+
+        final Object edit = new Object();
+        LabelMap<String> map = LabelMap.of( edit, first, "first" ).put( edit, second, "second" ).put( edit, "other", "other" );
+
+        assertEquals( "first", get( map, first ) );
+        assertEquals( "second", get( map, second ) );
+        assertEquals( "other", get( map, "other" ) );
+        assertEquals( 3, count( map ) );
+
+        map = map.remove( edit, first );
+        assertNull( get( map, first ) );
+        assertEquals( "second", get( map, second ) );
+        assertEquals( 2, count( map ) );
+    }
+
+    private static <V> V get( final LabelMap<V> map, final String label )
+    {
+        return map.get( label, 0, label.length(), LabelMap.hash( label, 0, label.length() ) );
+    }
+
+    private static int count( final LabelMap<?> map )
+    {
+        final int[] result = new int[ 1 ];
+        map.forEach( ( label, value ) -> result[ 0 ]++ );
+        return result[ 0 ];
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that a {@link MappedBlacklistIndex} holds the entries and validators that were written to its file.
+ */
+public class MappedBlacklistIndexTest
+{
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        final DomainTrie trie = PerfectHashBlacklistIndexTest.generate( 1000 );
+        final Path path = directory.resolve( "blacklist.idx" );
+
+        MappedBlacklistIndex.write( trie, "https://example.org/list.txt", "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT", path );
+        final MappedBlacklistIndex index = MappedBlacklistIndex.open( path );
+
+        assertEquals( "https://example.org/list.txt", index.getSource() );
+        assertEquals( "\"v1\"", index.getETag() );
+        assertEquals( "Mon, 01 Jan 2024 00:00:00 GMT", index.getLastModified() );
+        assertEquals( trie.size(), index.size() );
+        assertEquals( entries( trie ), entries( index ) );
+
+        assertTrue( index.contains( null, "host0.example", null ) );
+        assertTrue( index.contains( null, "sub.host1.example", null ) );
+        assertFalse( index.contains( null, "host1.example", null ) );
+        assertTrue( index.contains( "user2", "bad.example", "resource" ) );
+        assertTrue( index.contains( "user3", "bad.example", "home" ) );
+        assertFalse( index.contains( "user3", "bad.example", "work" ) );
+        assertEquals( "*.host1.example", index.getMatchingEntry( null, "sub.host1.example", null ) );
+    }
+
+    @Test
+    public void testAbsentValidators() throws Exception
+    {
+        final DomainTrie trie = new DomainTrie();
+        trie.add( null, "spam.example", null );
+        final Path path = directory.resolve( "blacklist.idx" );
+
+        MappedBlacklistIndex.write( trie, null, null, null, path );
+        final MappedBlacklistIndex index = MappedBlacklistIndex.open( path );
+
+        assertNull( index.getSource() );
+        assertNull( index.getETag() );
+        assertNull( index.getLastModified() );
+        assertTrue( index.contains( null, "spam.example", null ) );
+    }
+
+    @Test
+    public void testReplace() throws Exception
+    {
+        final Path path = directory.resolve( "blacklist.idx" );
+        final DomainTrie first = new DomainTrie();
+        first.add( null, "spam.example", null );
+        MappedBlacklistIndex.write( first, null, null, null, path );
+
+        final DomainTrie second = new DomainTrie();
+        second.add( null, "other.example", null );
+        MappedBlacklistIndex.write( second, null, null, null, path );
+        final MappedBlacklistIndex index = MappedBlacklistIndex.open( path );
+
+        assertFalse( index.contains( null, "spam.example", null ) );
+        assertTrue( index.contains( null, "other.example", null ) );
+    }
+
+    @Test
+    public void testInvalidFile() throws Exception
+    {
+        final Path path = directory.resolve( "blacklist.idx" );
+        Files.write( path, "spam.example\n".getBytes( StandardCharsets.UTF_8 ) );
+
+        assertThrows( IOException.class, () -> MappedBlacklistIndex.open( path ) );
+    }
+
+    private static Set<String> entries( final EnumerableBlacklistIndex index )
+    {
+        final Set<String> result = new HashSet<>();
+        index.forEachEntry( result::add );
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that a {@link PerfectHashBlacklistIndex} matches every entry of the trie that it was built from.
+ */
+public class PerfectHashBlacklistIndexTest
+{
+    private static final int ENTRIES = 10000;
+
+    @Test
+    public void testNoFalseNegatives()
+    {
+        final DomainTrie trie = generate( ENTRIES );
+        final PerfectHashBlacklistIndex index = PerfectHashBlacklistIndex.build( trie );
+
+        assertEquals( trie.size(), index.size() );
+        for ( int i = 0; i < ENTRIES; i++ )
+        {
+            switch ( i % 4 )
+            {
+                case 0:
+                    assertTrue( index.contains( null, "host" + i + ".example", null ) );
+                    assertTrue( index.contains( "user", "host" + i + ".example", "resource" ) );
+                    assertEquals( "host" + i + ".example", index.getMatchingEntry( "user", "host" + i + ".example", null ) );
+                    break;
+                case 1:
+                    assertTrue( index.contains( null, "sub.host" + i + ".example", null ) );
+                    assertTrue( index.contains( null, "a.b.host" + i + ".example", null ) );
+                    assertEquals( "*.host" + i + ".example", index.getMatchingEntry( null, "a.b.host" + i + ".example", null ) );
+                    break;
+                case 2:
+                    assertTrue( index.contains( "user" + i, "bad.example", null ) );
+                    assertTrue( index.contains( "user" + i, "bad.example", "resource" ) );
+                    assertEquals( "user" + i + "@bad.example", index.getMatchingEntry( "user" + i, "bad.example", "resource" ) );
+                    break;
+                default:
+                    assertTrue( index.contains( "user" + i, "bad.example", "home" ) );
+                    assertEquals( "user" + i + "@bad.example/home", index.getMatchingEntry( "user" + i, "bad.example", "home" ) );
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void testAbsentEntries()
+    {
+        final PerfectHashBlacklistIndex index = PerfectHashBlacklistIndex.build( generate( ENTRIES ) );
+
+        assertFalse( index.contains( null, "good.example", null ) );
+        assertFalse( index.contains( null, "host1.example", null ) );
+        assertFalse( index.contains( null, "sub.host0.example", null ) );
+        assertFalse( index.contains( null, "bad.example", null ) );
+        assertFalse( index.contains( "user3", "bad.example", "work" ) );
+        assertNull( index.getMatchingEntry( null, "good.example", null ) );
+    }
+
+    @Test
+    public void testDomainVerdict()
+    {
+        final PerfectHashBlacklistIndex index = PerfectHashBlacklistIndex.build( generate( ENTRIES ) );
+
+        assertEquals( Blacklist.DomainVerdict.BLOCKED, index.getDomainVerdict( "host0.example" ) );
+        assertEquals( Blacklist.DomainVerdict.BLOCKED, index.getDomainVerdict( "sub.host1.example" ) );
+        assertEquals( Blacklist.DomainVerdict.PARTIAL, index.getDomainVerdict( "bad.example" ) );
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        final PerfectHashBlacklistIndex index = PerfectHashBlacklistIndex.build( new DomainTrie() );
+
+        assertEquals( 0, index.size() );
+        assertFalse( index.contains( null, "good.example", null ) );
+    }
+
+    /**
+     * Generates a trie that holds an equal amount of domains, wildcards, bare JIDs and full JIDs.
+     */
+    static DomainTrie generate( final int amount )
+    {
+        final DomainTrie result = new DomainTrie();
+        for ( int i = 0; i < amount; i++ )
+        {
+            switch ( i % 4 )
+            {
+                case 0:
+                    result.add( null, "host" + i + ".example", null );
+                    break;
+                case 1:
+                    result.addWildcard( "host" + i + ".example" );
+                    break;
+                case 2:
+                    result.add( "user" + i, "bad.example", null );
+                    break;
+                default:
+                    result.add( "user" + i, "bad.example", "home" );
+                    break;
+            }
+        }
+        return result;
+    }
+}
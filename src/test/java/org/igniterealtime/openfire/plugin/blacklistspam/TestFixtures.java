@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Ignite Realtime Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.igniterealtime.openfire.plugin.blacklistspam;
+
+import org.jivesoftware.util.JiveGlobals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Prepares the environment in which Openfire classes can be used outside of a running server.
+ */
+final class TestFixtures
+{
+    private TestFixtures()
+    {
+    }
+
+    /**
+     * Points Openfire to a temporary, empty home directory. With that, Openfire considers itself to be in setup mode,
+     * which causes system properties to return their default values, rather than them being loaded from a database.
+     */
+    static void configureOpenfireHome()
+    {
+        try
+        {
+            final Path home = Files.createTempDirectory( "blacklistspam-test" );
+            Files.createDirectories( home.resolve( "conf" ) );
+            Files.write( home.resolve( "conf" ).resolve( "openfire.xml" ), "<jive></jive>".getBytes( StandardCharsets.UTF_8 ) );
+            JiveGlobals.setHomePath( home );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Takes Openfire out of setup mode, so that the values of system properties can be changed. As there is no
+     * database, the values are held in memory only.
+     */
+    static void enableSystemProperties()
+    {
+        JiveGlobals.setXMLProperty( "setup", "true" );
+
+        // Fail fast when the values are stored, rather than retrying to connect to the database.
+        JiveGlobals.setXMLProperty( "database.maxRetries", "0" );
+        JiveGlobals.setXMLProperty( "database.retryDelay", "0" );
+    }
+}